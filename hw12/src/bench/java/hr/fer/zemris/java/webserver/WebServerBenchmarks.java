@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
+import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.benchmark.Microbenchmark;
+
+/**
+ * Microbenchmarks of hot paths of web server: parsing of request header,
+ * generation of response header, handling of cookies and execution of every
+ * smart script from document root. Arguments are path to document root,
+ * number of warmup iterations, number of measured iterations and duration of
+ * iteration in milliseconds, all optional. Benchmarks are in server's package
+ * so they can call same package-private helpers that server uses.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class WebServerBenchmarks {
+	/**
+	 * Typical request header sent by browser.
+	 */
+	private static final byte[] request = ("GET /scripts/zbrajanje.smscr?a=3&b=7 HTTP/1.1\r\n"
+			+ "Host: 127.0.0.1:5721\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:91.0) Gecko/20100101 Firefox/91.0\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+			+ "Accept-Language: en-US,en;q=0.5\r\n" + "Accept-Encoding: gzip, deflate\r\n"
+			+ "Connection: keep-alive\r\n" + "Cookie: sid=\"VRMILPNOWMEYHRYRYIMP\"\r\n"
+			+ "Upgrade-Insecure-Requests: 1\r\n" + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+	/**
+	 * Request header with many cookies in more Cookie fields.
+	 */
+	private static final byte[] cookieRequest = ("GET /index.html HTTP/1.1\r\n" + "Host: 127.0.0.1:5721\r\n"
+			+ "Cookie: theme=dark; lang=hr; tracking=0123456789abcdef0123456789abcdef\r\n"
+			+ "Cookie: cart=\"a1,b2,c3\"; sid=\"VRMILPNOWMEYHRYRYIMP\"; consent=yes\r\n" + "\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+
+	/**
+	 * Main method from where program starts.
+	 * 
+	 * @param args
+	 *            Document root, warmup iterations, measured iterations and
+	 *            iteration duration in milliseconds.
+	 * @throws Exception
+	 *             If benchmark failed.
+	 */
+
+	public static void main(String[] args) throws Exception {
+		Path documentRoot = Paths.get(args.length > 0 ? args[0] : "./webroot");
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int measured = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		long millis = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+		Microbenchmark benchmark = new Microbenchmark(warmup, measured, millis);
+
+		System.out.printf("Warmup %d x %d ms, measured %d x %d ms%n%n", warmup, millis, measured, millis);
+
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+		ByteBuffer requestBuffer = ByteBuffer.wrap(request);
+		benchmark.measure("parse request header", () -> {
+			parser.reset();
+			requestBuffer.clear();
+			parser.parse(requestBuffer);
+			return parser.getTarget();
+		});
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream(16384);
+		byte[] body = "<html><body>Hello</body></html>".getBytes(StandardCharsets.UTF_8);
+		benchmark.measure("create response header", () -> {
+			output.reset();
+			RequestContext context = new RequestContext(output, null, null, null);
+			context.setKeepAlive(true);
+			context.addRCCookie(new RCCookie("sid", "VRMILPNOWMEYHRYRYIMP", null, "127.0.0.1", "/"));
+			context.write(body);
+			context.finish();
+			return output.size();
+		});
+
+		ByteBuffer cookieBuffer = ByteBuffer.wrap(cookieRequest);
+		benchmark.measure("find session cookie and set cookie", () -> {
+			parser.reset();
+			cookieBuffer.clear();
+			parser.parse(cookieBuffer);
+			String sid = SmartHttpServer.findCookie(parser.getCookie(), "sid");
+
+			output.reset();
+			List<RCCookie> cookies = new ArrayList<>();
+			cookies.add(new RCCookie("sid", sid, null, "127.0.0.1", "/"));
+			RequestContext context = new RequestContext(output, null, null, cookies);
+			context.finish();
+			return output.size();
+		});
+
+		List<Path> scripts = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(documentRoot.resolve("scripts"), "*.smscr")) {
+			stream.forEach(scripts::add);
+		}
+		scripts.sort(null);
+
+		for (Path script : scripts) {
+			CompiledScript compiledScript = CompiledScript.compile(ScriptCache.parse(script));
+			Map<String, String> parameters = new HashMap<>();
+			parameters.put("a", "3");
+			parameters.put("b", "7");
+			Map<String, String> persistentParameters = new HashMap<>();
+			benchmark.measure("execute " + script.getFileName(), () -> execute(compiledScript, output, parameters,
+					persistentParameters));
+		}
+	}
+
+	/**
+	 * Executes smart script and discards its output.
+	 * 
+	 * @param compiledScript
+	 *            Compiled script.
+	 * @param output
+	 *            Output stream that is reused.
+	 * @param parameters
+	 *            Request parameters.
+	 * @param persistentParameters
+	 *            Persistent parameters.
+	 * @return Number of written bytes.
+	 * @throws IOException
+	 *             If script couldn't be written.
+	 */
+
+	private static int execute(CompiledScript compiledScript, ByteArrayOutputStream output,
+			Map<String, String> parameters, Map<String, String> persistentParameters) throws IOException {
+		output.reset();
+		RequestContext context = new RequestContext(output, parameters, persistentParameters, null);
+		new SmartScriptEngine(compiledScript, context).execute();
+		context.finish();
+		return output.size();
+	}
+}
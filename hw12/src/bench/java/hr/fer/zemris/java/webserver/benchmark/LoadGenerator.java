@@ -0,0 +1,463 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Load generator that drives {@link SmartHttpServer} over loopback. Server is
+ * started in same process from given configuration, unless host of running
+ * server is given. Every connection is driven by its own thread that sends
+ * next request as soon as response to previous one is read, either on same
+ * kept alive connection or on new connection. After warmup, requests are
+ * counted for given duration and throughput, latency percentiles and status
+ * codes are reported. Server logging should be turned down (for example with
+ * "server.logLevel = WARN") so it doesn't compete with measured requests.
+ * <p>
+ * Arguments are given as key=value pairs: config (server properties, default
+ * ./config/server.properties), host and port (of running server), connections
+ * (default 16), duration and warmup (in seconds, default 10 and 3), keepAlive
+ * (default true) and paths (comma separated, default /index.html).
+ * </p>
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class LoadGenerator {
+	/**
+	 * Quantiles of latency that are reported.
+	 */
+	private static final double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+	/**
+	 * Flag that tells if connections send requests.
+	 */
+	private static volatile boolean running = true;
+	/**
+	 * Flag that tells if requests are measured.
+	 */
+	private static volatile boolean measuring;
+
+	/**
+	 * Main method from where program starts.
+	 * 
+	 * @param args
+	 *            Arguments as key=value pairs.
+	 * @throws Exception
+	 *             If load couldn't be generated.
+	 */
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			String[] parts = arg.split("=", 2);
+			if (parts.length != 2) {
+				System.out.println("Expected arguments as key=value pairs.");
+				return;
+			}
+			options.put(parts[0], parts[1]);
+		}
+
+		String config = options.getOrDefault("config", "./config/server.properties");
+		int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+		int duration = Integer.parseInt(options.getOrDefault("duration", "10"));
+		int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+		boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keepAlive", "true"));
+		String[] paths = options.getOrDefault("paths", "/index.html").split(",");
+
+		EmbeddedServer server = null;
+		String host = options.get("host");
+		int port;
+		if (host == null) {
+			Properties properties = new Properties();
+			try (InputStream is = Files.newInputStream(Paths.get(config))) {
+				properties.load(is);
+			}
+			host = properties.getProperty("server.address");
+			port = Integer.parseInt(properties.getProperty("server.port"));
+			server = new EmbeddedServer(config);
+			server.startServer();
+			Thread.sleep(500);
+		} else {
+			port = Integer.parseInt(options.getOrDefault("port", "5721"));
+		}
+
+		System.out.printf("Load: %d connections, keep-alive %s, paths %s, warmup %d s, duration %d s%n",
+				connections, keepAlive, String.join(",", paths), warmup, duration);
+
+		List<Connection> clients = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			Connection client = new Connection(new InetSocketAddress(host, port), paths, i, keepAlive);
+			clients.add(client);
+			client.start();
+		}
+
+		Thread.sleep(warmup * 1000L);
+		measuring = true;
+		long start = System.nanoTime();
+		Thread.sleep(duration * 1000L);
+		measuring = false;
+		long elapsed = System.nanoTime() - start;
+		running = false;
+		for (Connection client : clients) {
+			client.join(5000);
+		}
+
+		report(clients, elapsed);
+		if (server != null) {
+			server.stopServer();
+		}
+	}
+
+	/**
+	 * Prints throughput, latency percentiles and status codes of measured
+	 * requests.
+	 * 
+	 * @param clients
+	 *            Connections.
+	 * @param elapsed
+	 *            Duration of measurement in nanoseconds.
+	 */
+
+	private static void report(List<Connection> clients, long elapsed) {
+		int count = 0;
+		long errors = 0;
+		Map<Integer, Long> statusCodes = new TreeMap<>();
+		for (Connection client : clients) {
+			count += client.latencyCount;
+			errors += client.errors;
+			client.statusCodes.forEach((code, number) -> statusCodes.merge(code, number, Long::sum));
+		}
+
+		long[] latencies = new long[count];
+		int offset = 0;
+		for (Connection client : clients) {
+			System.arraycopy(client.latencies, 0, latencies, offset, client.latencyCount);
+			offset += client.latencyCount;
+		}
+		Arrays.sort(latencies);
+
+		double seconds = elapsed / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Requests: %d in %.2f s, throughput %.1f requests/s", count,
+				seconds, count / seconds));
+		if (count > 0) {
+			long sum = 0;
+			for (long latency : latencies) {
+				sum += latency;
+			}
+			StringBuilder sb = new StringBuilder(
+					String.format(Locale.ROOT, "Latency (us): mean %.1f", sum / 1e3 / count));
+			for (double quantile : quantiles) {
+				int index = Math.max(0, (int) Math.ceil(quantile * count) - 1);
+				String percentile = Double.toString(quantile * 100).replaceAll("\\.0$", "");
+				sb.append(String.format(Locale.ROOT, ", p%s %.1f", percentile, latencies[index] / 1e3));
+			}
+			sb.append(String.format(Locale.ROOT, ", max %.1f", latencies[count - 1] / 1e3));
+			System.out.println(sb.toString());
+		}
+		System.out.println("Status codes: " + statusCodes);
+		System.out.println("Errors: " + errors);
+	}
+
+	/**
+	 * Thread that drives single connection.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class Connection extends Thread {
+		/**
+		 * Address of server.
+		 */
+		private InetSocketAddress address;
+		/**
+		 * Requests sent in turn.
+		 */
+		private byte[][] requests;
+		/**
+		 * Index of next request.
+		 */
+		private int next;
+		/**
+		 * Latencies of measured requests in nanoseconds.
+		 */
+		private long[] latencies = new long[1024];
+		/**
+		 * Number of measured latencies.
+		 */
+		private int latencyCount;
+		/**
+		 * Number of measured responses by status code.
+		 */
+		private Map<Integer, Long> statusCodes = new HashMap<>();
+		/**
+		 * Number of failed requests.
+		 */
+		private long errors;
+		/**
+		 * Client's socket, or null if it isn't connected.
+		 */
+		private Socket socket;
+		/**
+		 * Input stream of socket.
+		 */
+		private InputStream input;
+		/**
+		 * Output stream of socket.
+		 */
+		private OutputStream output;
+		/**
+		 * Flag that tells if server closes connection after current response.
+		 */
+		private boolean closed;
+
+		/**
+		 * Constructor that prepares requests.
+		 * 
+		 * @param address
+		 *            Address of server.
+		 * @param paths
+		 *            Requested paths.
+		 * @param index
+		 *            Index of connection, used to spread paths.
+		 * @param keepAlive
+		 *            True if connection is kept alive.
+		 */
+
+		private Connection(InetSocketAddress address, String[] paths, int index, boolean keepAlive) {
+			this.address = address;
+			this.next = index;
+			requests = new byte[paths.length][];
+			for (int i = 0; i < paths.length; i++) {
+				requests[i] = String.format("GET %s HTTP/1.1\r\nHost: %s:%d\r\nConnection: %s\r\n\r\n",
+						paths[i].trim(), address.getHostString(), address.getPort(),
+						keepAlive ? "keep-alive" : "close").getBytes(StandardCharsets.ISO_8859_1);
+			}
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				long start = System.nanoTime();
+				int statusCode;
+				try {
+					if (socket == null) {
+						socket = new Socket();
+						socket.setTcpNoDelay(true);
+						socket.connect(address);
+						input = new BufferedInputStream(socket.getInputStream(), 16384);
+						output = socket.getOutputStream();
+					}
+
+					output.write(requests[next++ % requests.length]);
+					output.flush();
+					statusCode = readResponse();
+				} catch (IOException e) {
+					if (measuring) {
+						errors++;
+					}
+					closeSocket();
+					continue;
+				}
+
+				if (measuring) {
+					record(System.nanoTime() - start, statusCode);
+				}
+				if (closed) {
+					closeSocket();
+				}
+			}
+
+			closeSocket();
+		}
+
+		/**
+		 * Records latency and status code of measured request.
+		 * 
+		 * @param latency
+		 *            Latency in nanoseconds.
+		 * @param statusCode
+		 *            Status code.
+		 */
+
+		private void record(long latency, int statusCode) {
+			if (latencyCount == latencies.length) {
+				latencies = Arrays.copyOf(latencies, latencies.length * 2);
+			}
+			latencies[latencyCount++] = latency;
+			statusCodes.merge(statusCode, 1L, Long::sum);
+		}
+
+		/**
+		 * Reads whole response and skips its body.
+		 * 
+		 * @return Status code.
+		 * @throws IOException
+		 *             If response couldn't be read.
+		 */
+
+		private int readResponse() throws IOException {
+			String statusLine = readLine();
+			String[] parts = statusLine.split(" ");
+			if (parts.length < 2) {
+				throw new IOException("Invalid status line: " + statusLine);
+			}
+			int statusCode = Integer.parseInt(parts[1]);
+
+			long contentLength = -1;
+			boolean chunked = false;
+			closed = false;
+			for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+				int colon = line.indexOf(':');
+				if (colon < 0) {
+					continue;
+				}
+				String name = line.substring(0, colon).trim();
+				String value = line.substring(colon + 1).trim();
+				if (name.equalsIgnoreCase("Content-Length")) {
+					contentLength = Long.parseLong(value);
+				} else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+					chunked = value.equalsIgnoreCase("chunked");
+				} else if (name.equalsIgnoreCase("Connection")) {
+					closed = value.equalsIgnoreCase("close");
+				}
+			}
+
+			if (statusCode == 304 || statusCode == 204) {
+				return statusCode;
+			} else if (chunked) {
+				long size;
+				while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0) {
+					skip(size);
+					readLine();
+				}
+				while (!readLine().isEmpty()) {
+					// Skips trailer fields.
+				}
+			} else if (contentLength >= 0) {
+				skip(contentLength);
+			} else {
+				// Body ends when server closes connection.
+				while (input.read() != -1) {
+					skip(input.available());
+				}
+				closed = true;
+			}
+
+			return statusCode;
+		}
+
+		/**
+		 * Reads single line without line terminator.
+		 * 
+		 * @return Line.
+		 * @throws IOException
+		 *             If stream ended.
+		 */
+
+		private String readLine() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int b;
+			while ((b = input.read()) != '\n') {
+				if (b == -1) {
+					throw new IOException("Connection closed.");
+				}
+				if (b != '\r') {
+					sb.append((char) b);
+				}
+			}
+
+			return sb.toString();
+		}
+
+		/**
+		 * Skips given number of bytes.
+		 * 
+		 * @param count
+		 *            Number of bytes.
+		 * @throws IOException
+		 *             If stream ended.
+		 */
+
+		private void skip(long count) throws IOException {
+			while (count > 0) {
+				long skipped = input.skip(count);
+				if (skipped <= 0) {
+					if (input.read() == -1) {
+						throw new IOException("Connection closed.");
+					}
+					skipped = 1;
+				}
+				count -= skipped;
+			}
+		}
+
+		/**
+		 * Closes socket so next request opens new connection.
+		 */
+
+		private void closeSocket() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException ignorable) {
+				}
+				socket = null;
+			}
+		}
+	}
+
+	/**
+	 * Server started in same process as load generator.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class EmbeddedServer extends SmartHttpServer {
+		/**
+		 * Constructor that loads server configuration.
+		 * 
+		 * @param configFileName
+		 *            Path to server properties.
+		 */
+
+		private EmbeddedServer(String configFileName) {
+			super(configFileName);
+		}
+
+		/**
+		 * Starts server.
+		 */
+
+		private void startServer() {
+			start();
+		}
+
+		/**
+		 * Stops server.
+		 */
+
+		private void stopServer() {
+			stop();
+		}
+	}
+}
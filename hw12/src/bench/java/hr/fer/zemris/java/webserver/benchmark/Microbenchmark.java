@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.util.Locale;
+
+/**
+ * Small harness for microbenchmarks. Operation is first run for number of
+ * warmup iterations, so JIT compiler can compile it, and then for number of
+ * measured iterations. Every iteration runs operation for fixed time and
+ * average time of single operation is reported, together with its spread
+ * over measured iterations. Results of operations are consumed so compiler
+ * can't remove them as dead code.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class Microbenchmark {
+	/**
+	 * Sink that consumes results of operations.
+	 */
+	private static volatile Object sink;
+	/**
+	 * Number of operations between two checks of time.
+	 */
+	private static final int batchSize = 64;
+	/**
+	 * Number of warmup iterations.
+	 */
+	private int warmupIterations;
+	/**
+	 * Number of measured iterations.
+	 */
+	private int measurementIterations;
+	/**
+	 * Duration of single iteration in nanoseconds.
+	 */
+	private long iterationNanos;
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param warmupIterations
+	 *            Number of warmup iterations.
+	 * @param measurementIterations
+	 *            Number of measured iterations.
+	 * @param iterationMillis
+	 *            Duration of single iteration in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             If number of measured iterations or duration isn't positive.
+	 */
+
+	public Microbenchmark(int warmupIterations, int measurementIterations, long iterationMillis)
+			throws IllegalArgumentException {
+		if (measurementIterations < 1 || iterationMillis < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1_000_000;
+	}
+
+	/**
+	 * Measures given operation and prints its result on standard output.
+	 * 
+	 * @param name
+	 *            Name of benchmark.
+	 * @param operation
+	 *            Measured operation.
+	 * @return Average time of single operation in nanoseconds.
+	 * @throws Exception
+	 *             If operation failed.
+	 */
+
+	public double measure(String name, Operation operation) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			iteration(operation);
+		}
+
+		double[] results = new double[measurementIterations];
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		for (int i = 0; i < measurementIterations; i++) {
+			results[i] = iteration(operation);
+			sum += results[i];
+			min = Math.min(min, results[i]);
+		}
+
+		double mean = sum / measurementIterations;
+		double squares = 0;
+		for (double result : results) {
+			squares += (result - mean) * (result - mean);
+		}
+		double deviation = measurementIterations > 1 ? Math.sqrt(squares / (measurementIterations - 1)) : 0;
+
+		System.out.println(String.format(Locale.ROOT, "%-40s %12.1f ns/op  +- %8.1f  (min %.1f)", name, mean,
+				deviation, min));
+		return mean;
+	}
+
+	/**
+	 * Runs operation for duration of single iteration.
+	 * 
+	 * @param operation
+	 *            Measured operation.
+	 * @return Average time of single operation in nanoseconds.
+	 * @throws Exception
+	 *             If operation failed.
+	 */
+
+	private double iteration(Operation operation) throws Exception {
+		long operations = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			for (int i = 0; i < batchSize; i++) {
+				sink = operation.run();
+			}
+			operations += batchSize;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < iterationNanos);
+
+		return (double) elapsed / operations;
+	}
+
+	/**
+	 * Measured operation.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	@FunctionalInterface
+	public static interface Operation {
+		/**
+		 * Runs operation once.
+		 * 
+		 * @return Result of operation that is consumed by benchmark.
+		 * @throws Exception
+		 *             If operation failed.
+		 */
+
+		Object run() throws Exception;
+	}
+}
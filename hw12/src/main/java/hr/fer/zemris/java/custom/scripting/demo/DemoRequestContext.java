@@ -50,8 +50,10 @@ public class DemoRequestContext {
 		rc.setMimeType("text/plain");
 		rc.setStatusCode(205);
 		rc.setStatusText("Idemo dalje");
-		// Only at this point will header be created and written...
+		// Only at this point will header be created...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// ...and written together with buffered body.
+		rc.finish();
 		os.close();
 	}
 
@@ -76,8 +78,10 @@ public class DemoRequestContext {
 		rc.setStatusText("Idemo dalje");
 		rc.addRCCookie(new RCCookie("korisnik", "perica", 3600, "127.0.0.1", "/"));
 		rc.addRCCookie(new RCCookie("zgrada", "B4", null, null, "/"));
-		// Only at this point will header be created and written...
+		// Only at this point will header be created...
 		rc.write("Čevapčići i Šiščevapčići.");
+		// ...and written together with buffered body.
+		rc.finish();
 		os.close();
 	}
 
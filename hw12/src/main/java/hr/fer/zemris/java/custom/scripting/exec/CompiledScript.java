@@ -0,0 +1,992 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleBinaryOperator;
+
+import hr.fer.zemris.java.custom.scripting.elems.Element;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantDouble;
+import hr.fer.zemris.java.custom.scripting.elems.ElementConstantInteger;
+import hr.fer.zemris.java.custom.scripting.elems.ElementFunction;
+import hr.fer.zemris.java.custom.scripting.elems.ElementOperator;
+import hr.fer.zemris.java.custom.scripting.elems.ElementString;
+import hr.fer.zemris.java.custom.scripting.elems.ElementVariable;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.nodes.EchoNode;
+import hr.fer.zemris.java.custom.scripting.nodes.ForLoopNode;
+import hr.fer.zemris.java.custom.scripting.nodes.Node;
+import hr.fer.zemris.java.custom.scripting.nodes.TextNode;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Script compiled from {@link DocumentNode} into tree of instructions. Every
+ * node is turned into instruction and every element of echo tag into
+ * operation once, when script is compiled, so operators and functions are
+ * looked up by name only once and execution doesn't inspect types of nodes
+ * and elements anymore. Compiled script isn't changed during execution, so
+ * same script can be executed by more threads at once. Errors of script, like
+ * unknown function or invalid number, are still reported only when they are
+ * executed. Every variable name gets numeric slot when script is compiled,
+ * so variables are stored in {@link IndexedMultistack} and reading them is
+ * plain array read instead of map lookup. Constant parts of echo tags are
+ * evaluated and static text is merged and encoded when script is compiled.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class CompiledScript {
+	/**
+	 * Difference under which double result is written as integer.
+	 */
+	private static final double epsilon = 1e-9;
+	/**
+	 * Operators and functions by their names.
+	 */
+	private static final Map<String, Operation> operations = new HashMap<>();
+	/**
+	 * Number of operands of operators and functions without side effects,
+	 * which can be applied to constants while script is compiled.
+	 */
+	private static final Map<String, Integer> pureOperations = new HashMap<>();
+	/**
+	 * Charset in which static text is encoded when script is compiled.
+	 */
+	private static final Charset textCharset = Charset.forName(RequestContext.defaultEncoding);
+
+	static {
+		operations.put("+", binaryOperation((a, b) -> a + b));
+		operations.put("-", binaryOperation((a, b) -> a - b));
+		operations.put("*", binaryOperation((a, b) -> a * b));
+		operations.put("/", binaryOperation((a, b) -> a / b));
+		operations.put("sin", (stack, context, multistack) -> sin(stack));
+		operations.put("decfmt", (stack, context, multistack) -> decimalFormat(stack));
+		operations.put("dup", (stack, context, multistack) -> stack.push(stack.peek()));
+		operations.put("swap", (stack, context, multistack) -> swap(stack));
+		operations.put("setMimeType", (stack, context, multistack) -> setMimeType(stack, context));
+		operations.put("setCacheTtl", (stack, context, multistack) -> setCacheTtl(stack, context));
+		operations.put("paramGet", (stack, context, multistack) -> paramGet(stack, context));
+		operations.put("pparamGet", (stack, context, multistack) -> pparamGet(stack, context));
+		operations.put("pparamSet", (stack, context, multistack) -> pparamSet(stack, context));
+		operations.put("pparamDel", (stack, context, multistack) -> pparamDel(stack, context));
+		operations.put("tparamGet", (stack, context, multistack) -> tparamGet(stack, context));
+		operations.put("tparamSet", (stack, context, multistack) -> tparamSet(stack, context));
+		operations.put("tparamDel", (stack, context, multistack) -> tparamDel(stack, context));
+
+		pureOperations.put("+", 2);
+		pureOperations.put("-", 2);
+		pureOperations.put("*", 2);
+		pureOperations.put("/", 2);
+		pureOperations.put("sin", 1);
+		pureOperations.put("decfmt", 2);
+		pureOperations.put("dup", 1);
+		pureOperations.put("swap", 2);
+	}
+
+	/**
+	 * Instructions of document.
+	 */
+	private Instruction[] instructions;
+	/**
+	 * Names of variables, indexed by their slots.
+	 */
+	private String[] variables;
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param instructions
+	 *            Instructions of document.
+	 * @param variables
+	 *            Names of variables, indexed by their slots.
+	 */
+
+	private CompiledScript(Instruction[] instructions, String[] variables) {
+		this.instructions = instructions;
+		this.variables = variables;
+	}
+
+	/**
+	 * Compiles given document node.
+	 * 
+	 * @param documentNode
+	 *            Document node.
+	 * @return Compiled script.
+	 * @throws IllegalArgumentException
+	 *             If document node is null or contains unknown node.
+	 */
+
+	public static CompiledScript compile(DocumentNode documentNode) throws IllegalArgumentException {
+		if (documentNode == null) {
+			throw new IllegalArgumentException();
+		}
+
+		Map<String, Integer> slots = new LinkedHashMap<>();
+		Instruction[] instructions = compileChildren(documentNode, slots);
+		return new CompiledScript(instructions, slots.keySet().toArray(new String[slots.size()]));
+	}
+
+	/**
+	 * Executes script and writes its output to given request context.
+	 * 
+	 * @param requestContext
+	 *            Request context.
+	 * @throws IOException
+	 *             If output couldn't be written.
+	 */
+
+	public void execute(RequestContext requestContext) throws IOException {
+		execute(instructions, requestContext, new IndexedMultistack(variables), new OperandStack());
+	}
+
+	/**
+	 * Gets number of top level instructions, after adjacent text and folded
+	 * echo tags were merged. Package-private so folding can be tested.
+	 * 
+	 * @return Number of instructions.
+	 */
+
+	int getInstructionCount() {
+		return instructions.length;
+	}
+
+	/**
+	 * Executes instructions in order.
+	 * 
+	 * @param instructions
+	 *            Instructions.
+	 * @param context
+	 *            Request context.
+	 * @param multistack
+	 *            Variables of for loops.
+	 * @param stack
+	 *            Operand stack of echo tags.
+	 * @throws IOException
+	 *             If output couldn't be written.
+	 */
+
+	private static void execute(Instruction[] instructions, RequestContext context, IndexedMultistack multistack,
+			OperandStack stack) throws IOException {
+		for (Instruction instruction : instructions) {
+			instruction.execute(context, multistack, stack);
+		}
+	}
+
+	/**
+	 * Compiles children of given node. Echo tags made only of constants and
+	 * operations without side effects are evaluated while script is compiled,
+	 * and their output is merged with adjacent text into single text
+	 * instruction. Constant echo tags that produce only whitespace are
+	 * dropped, because they wouldn't write anything.
+	 * 
+	 * @param node
+	 *            Node.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @return Instructions of children.
+	 * @throws IllegalArgumentException
+	 *             If node contains unknown node.
+	 */
+
+	private static Instruction[] compileChildren(Node node, Map<String, Integer> slots)
+			throws IllegalArgumentException {
+		List<Instruction> instructions = new ArrayList<>();
+		StringBuilder text = null;
+		for (int i = 0, numberOfChildren = node.numberOfChildren(); i < numberOfChildren; i++) {
+			Node child = node.getChild(i);
+			Instruction instruction;
+			if (child instanceof TextNode) {
+				if (text == null) {
+					text = new StringBuilder();
+				}
+				text.append(((TextNode) child).getText());
+				continue;
+			} else if (child instanceof EchoNode) {
+				OperandStack constants = new OperandStack();
+				Operation[] echoOperations = compileElements(((EchoNode) child).getElements(), slots, constants);
+				if (echoOperations.length == 0) {
+					String output = constantOutput(constants);
+					if (output != null) {
+						if (text == null) {
+							text = new StringBuilder();
+						}
+						text.append(output);
+					}
+					continue;
+				}
+				instruction = compileEcho(echoOperations);
+			} else if (child instanceof ForLoopNode) {
+				instruction = compileForLoop((ForLoopNode) child, slots);
+			} else {
+				throw new IllegalArgumentException("Unknown node: " + child.getClass().getSimpleName());
+			}
+
+			if (text != null) {
+				instructions.add(compileText(text.toString()));
+				text = null;
+			}
+			instructions.add(instruction);
+		}
+
+		if (text != null) {
+			instructions.add(compileText(text.toString()));
+		}
+
+		return instructions.toArray(new Instruction[instructions.size()]);
+	}
+
+	/**
+	 * Compiles static text. Text is encoded in default encoding of response
+	 * only once, and encoded bytes are written whenever response uses that
+	 * encoding.
+	 * 
+	 * @param text
+	 *            Text.
+	 * @return Instruction that writes text.
+	 */
+
+	private static Instruction compileText(String text) {
+		byte[] encoded = text.getBytes(textCharset);
+		return (context, multistack, stack) -> context.write(text, encoded, textCharset);
+	}
+
+	/**
+	 * Compiles echo tag. Its operations are run on operand stack that is
+	 * shared by all echo tags of execution and whatever is left on stack is
+	 * written from bottom to top, unless it is blank.
+	 * 
+	 * @param echoOperations
+	 *            Compiled elements of echo tag.
+	 * @return Instruction of echo tag.
+	 */
+
+	private static Instruction compileEcho(Operation[] echoOperations) {
+		return (context, multistack, stack) -> {
+			stack.clear();
+			for (Operation operation : echoOperations) {
+				operation.apply(stack, context, multistack);
+			}
+
+			boolean blank = true;
+			for (int i = 0, size = stack.size(); i < size; i++) {
+				String text = stack.get(i).toString();
+				stack.set(i, text);
+				blank = blank && isBlank(text);
+			}
+
+			if (!blank) {
+				for (int i = 0, size = stack.size(); i < size; i++) {
+					context.write((String) stack.get(i));
+				}
+			}
+			stack.clear();
+		};
+	}
+
+	/**
+	 * Compiles elements of echo tag and folds constants. Constants are kept on
+	 * given stack of constants instead of being pushed at run time, and
+	 * operation without side effects whose operands are all constants is
+	 * applied to them right away. Operation that fails on constants is left
+	 * for run time, so its error is reported when echo tag is executed. If
+	 * whole echo tag is folded no operations are returned and its values are
+	 * left on stack of constants.
+	 * 
+	 * @param elements
+	 *            Elements of echo tag.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @param constants
+	 *            Stack of constants that aren't pushed yet.
+	 * @return Operations that have to be run at run time.
+	 */
+
+	private static Operation[] compileElements(Element[] elements, Map<String, Integer> slots,
+			OperandStack constants) {
+		List<Operation> echoOperations = new ArrayList<>();
+		for (Element element : elements) {
+			Object constant = constantValue(element);
+			if (constant != null) {
+				constants.push(constant);
+				continue;
+			}
+
+			if (element instanceof ElementFunction || element instanceof ElementOperator) {
+				Integer operands = pureOperations.get(element.asText());
+				if (operands != null && operands <= constants.size()
+						&& fold(operations.get(element.asText()), operands, constants)) {
+					continue;
+				}
+			}
+
+			pushConstants(constants, echoOperations);
+			echoOperations.add(compileElement(element, slots));
+		}
+
+		if (!echoOperations.isEmpty()) {
+			pushConstants(constants, echoOperations);
+		}
+
+		return echoOperations.toArray(new Operation[echoOperations.size()]);
+	}
+
+	/**
+	 * Gets value of constant element.
+	 * 
+	 * @param element
+	 *            Element.
+	 * @return Integer, double or string, or null if element isn't constant.
+	 */
+
+	private static Object constantValue(Element element) {
+		if (element instanceof ElementConstantInteger) {
+			return ((ElementConstantInteger) element).getValue();
+		} else if (element instanceof ElementConstantDouble) {
+			return ((ElementConstantDouble) element).getValue();
+		} else if (element instanceof ElementString) {
+			return ((ElementString) element).getValue();
+		}
+
+		return null;
+	}
+
+	/**
+	 * Applies operation without side effects to constants on top of stack of
+	 * constants. Stack of constants isn't changed if operation fails.
+	 * 
+	 * @param operation
+	 *            Operation.
+	 * @param operands
+	 *            Number of operands of operation.
+	 * @param constants
+	 *            Stack of constants.
+	 * @return True if operation was applied, false if it failed.
+	 */
+
+	private static boolean fold(Operation operation, int operands, OperandStack constants) {
+		OperandStack stack = new OperandStack();
+		for (int i = constants.size() - operands; i < constants.size(); i++) {
+			stack.push(constants.get(i));
+		}
+
+		try {
+			operation.apply(stack, null, null);
+		} catch (RuntimeException e) {
+			return false;
+		}
+
+		for (int i = 0; i < operands; i++) {
+			constants.pop();
+		}
+		for (int i = 0; i < stack.size(); i++) {
+			constants.push(stack.get(i));
+		}
+		return true;
+	}
+
+	/**
+	 * Adds operations that push constants, bottom first, and clears stack of
+	 * constants.
+	 * 
+	 * @param constants
+	 *            Stack of constants.
+	 * @param echoOperations
+	 *            Operations of echo tag.
+	 */
+
+	private static void pushConstants(OperandStack constants, List<Operation> echoOperations) {
+		for (int i = 0; i < constants.size(); i++) {
+			Object value = constants.get(i);
+			echoOperations.add((stack, context, multistack) -> stack.push(value));
+		}
+		constants.clear();
+	}
+
+	/**
+	 * Gets output of folded echo tag, values from bottom to top.
+	 * 
+	 * @param constants
+	 *            Values left on stack by echo tag.
+	 * @return Output of echo tag, or null if it is blank.
+	 */
+
+	private static String constantOutput(OperandStack constants) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < constants.size(); i++) {
+			sb.append(constants.get(i).toString());
+		}
+
+		String output = sb.toString();
+		return isBlank(output) ? null : output;
+	}
+
+	/**
+	 * Checks if given text contains only whitespace, same as text that is
+	 * empty when it is trimmed.
+	 * 
+	 * @param text
+	 *            Text.
+	 * @return True if text is blank, false otherwise.
+	 */
+
+	private static boolean isBlank(String text) {
+		for (int i = 0, length = text.length(); i < length; i++) {
+			if (text.charAt(i) > ' ') {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compiles element of echo tag into operation on operand stack.
+	 * Constants are pushed, variables are looked up and operators and
+	 * functions are resolved by their names.
+	 * 
+	 * @param element
+	 *            Element.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @return Operation of element.
+	 */
+
+	private static Operation compileElement(Element element, Map<String, Integer> slots) {
+		if (element instanceof ElementConstantInteger) {
+			Integer value = ((ElementConstantInteger) element).getValue();
+			return (stack, context, multistack) -> stack.push(value);
+		} else if (element instanceof ElementConstantDouble) {
+			Double value = ((ElementConstantDouble) element).getValue();
+			return (stack, context, multistack) -> stack.push(value);
+		} else if (element instanceof ElementString) {
+			String value = ((ElementString) element).getValue();
+			return (stack, context, multistack) -> stack.push(value);
+		} else if (element instanceof ElementVariable) {
+			int slot = slot(((ElementVariable) element).getName(), slots);
+			return (stack, context, multistack) -> stack.push(multistack.peek(slot).getValue());
+		}
+
+		String key = element.asText();
+		Operation operation = operations.get(key);
+		if (operation == null) {
+			return (stack, context, multistack) -> {
+				throw new RuntimeException(String.format("Invalid expression %s.", key));
+			};
+		}
+
+		return operation;
+	}
+
+	/**
+	 * Compiles for loop. Counter is integer if start value is integer and
+	 * double otherwise, and it is increased by step until it passes end
+	 * value.
+	 * 
+	 * @param node
+	 *            For loop node.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @return Instruction of for loop.
+	 */
+
+	private static Instruction compileForLoop(ForLoopNode node, Map<String, Integer> slots) {
+		Expression start = compileExpression(node.getStartExpression(), slots);
+		Expression end = compileExpression(node.getEndExpression(), slots);
+		Expression step = node.getStepExpression() == null ? null
+				: compileExpression(node.getStepExpression(), slots);
+		int variable = slot(node.getVariable().getName(), slots);
+		Instruction[] body = compileChildren(node, slots);
+
+		return (context, multistack, stack) -> {
+			Object startValue = start.evaluate(multistack);
+			Object endValue = end.evaluate(multistack);
+			Object stepValue = step == null ? null : step.evaluate(multistack);
+
+			boolean startIsInt = startValue instanceof Integer;
+			boolean endIsInt = endValue instanceof Integer;
+			boolean stepIsInt = stepValue == null || stepValue instanceof Integer;
+
+			int intCounter = startIsInt ? (Integer) startValue : 0;
+			int intCondition = endIsInt ? (Integer) endValue : 0;
+			int intIncrement = !stepIsInt || stepValue == null ? 1 : (Integer) stepValue;
+
+			double doubleCounter = startIsInt ? 0.0 : (Double) startValue;
+			double doubleCondition = endIsInt ? 0.0 : (Double) endValue;
+			double doubleIncrement = stepIsInt ? 0.0 : (Double) stepValue;
+
+			ValueWrapper counter = startIsInt ? new ValueWrapper(intCounter) : new ValueWrapper(doubleCounter);
+			multistack.push(variable, counter);
+			while ((startIsInt ? intCounter : doubleCounter) <= (endIsInt ? intCondition : doubleCondition)) {
+				execute(body, context, multistack, stack);
+
+				if (startIsInt) {
+					intCounter += (stepIsInt ? intIncrement : doubleIncrement);
+					counter.setValue(intCounter);
+				} else {
+					doubleCounter += (stepIsInt ? intIncrement : doubleIncrement);
+					counter.setValue(doubleCounter);
+				}
+			}
+
+			multistack.pop(variable);
+		};
+	}
+
+	/**
+	 * Compiles expression of for loop. Variables are looked up on every
+	 * evaluation, while constants and strings are converted to numbers once.
+	 * String that isn't valid number fails when it is evaluated.
+	 * 
+	 * @param element
+	 *            Element of expression.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @return Expression.
+	 */
+
+	private static Expression compileExpression(Element element, Map<String, Integer> slots) {
+		if (element instanceof ElementVariable) {
+			int slot = slot(((ElementVariable) element).getName(), slots);
+			return multistack -> multistack.peek(slot).getValue();
+		}
+
+		Object value;
+		try {
+			if (isInteger(element)) {
+				value = getInteger(element);
+			} else {
+				value = getDouble(element);
+			}
+		} catch (NumberFormatException e) {
+			return multistack -> {
+				throw e;
+			};
+		}
+
+		return multistack -> value;
+	}
+
+	/**
+	 * Gets slot of variable with given name. Name that is seen for first time
+	 * gets next free slot.
+	 * 
+	 * @param name
+	 *            Name of variable.
+	 * @param slots
+	 *            Slots of variables by their names.
+	 * @return Slot of variable.
+	 */
+
+	private static int slot(String name, Map<String, Integer> slots) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = slots.size();
+			slots.put(name, slot);
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Gets integer value of element.
+	 * 
+	 * @param element
+	 *            Integer constant or string.
+	 * @return Integer value.
+	 */
+
+	private static int getInteger(Element element) {
+		if (element instanceof ElementString) {
+			return Integer.parseInt(((ElementString) element).getValue());
+		}
+
+		return ((ElementConstantInteger) element).getValue();
+	}
+
+	/**
+	 * Gets double value of element.
+	 * 
+	 * @param element
+	 *            Double constant or string.
+	 * @return Double value.
+	 */
+
+	private static double getDouble(Element element) {
+		if (element instanceof ElementString) {
+			return Double.parseDouble(((ElementString) element).getValue());
+		}
+
+		return ((ElementConstantDouble) element).getValue();
+	}
+
+	/**
+	 * Checks if element holds integer.
+	 * 
+	 * @param element
+	 *            Element.
+	 * @return True if element is integer constant or string without decimal
+	 *         point and exponent, false otherwise.
+	 */
+
+	private static boolean isInteger(Element element) {
+		if (element instanceof ElementConstantInteger) {
+			return true;
+		}
+
+		if (!(element instanceof ElementString)) {
+			return false;
+		}
+
+		String value = ((ElementString) element).getValue();
+		return !value.contains(".") && !value.toUpperCase().contains("E");
+	}
+
+	/**
+	 * Creates operation that applies binary operator to two numbers from top
+	 * of stack.
+	 * 
+	 * @param operator
+	 *            Operator, applied to top number and number under it.
+	 * @return Operation.
+	 */
+
+	private static Operation binaryOperation(DoubleBinaryOperator operator) {
+		return (stack, context, multistack) -> {
+			Double value1 = convertToDouble(stack.pop());
+			Double value2 = convertToDouble(stack.pop());
+
+			pushNumber(stack, operator.applyAsDouble(value1, value2));
+		};
+	}
+
+	/**
+	 * Pushes number to stack, as integer if it has no decimal part.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param result
+	 *            Number.
+	 */
+
+	private static void pushNumber(OperandStack stack, Double result) {
+		if (Math.abs(result - result.intValue()) < epsilon) {
+			stack.push(result.intValue());
+		} else {
+			stack.push(result);
+		}
+	}
+
+	/**
+	 * Replaces angle in degrees on top of stack with its sine.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 */
+
+	private static void sin(OperandStack stack) {
+		Double x = convertToDouble(stack.pop());
+		pushNumber(stack, Math.sin(x * Math.PI / 180));
+	}
+
+	/**
+	 * Formats number under format on top of stack.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 */
+
+	private static void decimalFormat(OperandStack stack) {
+		Object format = stack.pop();
+		Double value = convertToDouble(stack.pop());
+
+		DecimalFormat df = new DecimalFormat(format.toString());
+
+		stack.push(df.format(Math.abs(value - value.intValue()) < epsilon ? value.intValue() : value));
+	}
+
+	/**
+	 * Swaps two values on top of stack.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 */
+
+	private static void swap(OperandStack stack) {
+		Object a = stack.pop();
+		Object b = stack.pop();
+
+		stack.push(a);
+		stack.push(b);
+	}
+
+	/**
+	 * Sets mime type of response.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void setMimeType(OperandStack stack, RequestContext context) {
+		Object mimeType = stack.pop();
+		if (!(mimeType instanceof String)) {
+			throw new RuntimeException("Function setMimeType requests string as argument");
+		}
+
+		context.setMimeType((String) mimeType);
+	}
+
+	/**
+	 * Sets for how many seconds output of script can be cached.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void setCacheTtl(OperandStack stack, RequestContext context) {
+		Double ttl = convertToDouble(stack.pop());
+		if (ttl < 0) {
+			throw new RuntimeException("Function setCacheTtl requests non-negative number of seconds");
+		}
+
+		context.setCacheTtl(ttl.intValue());
+	}
+
+	/**
+	 * Pushes request parameter, or default value if there is no such
+	 * parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void paramGet(OperandStack stack, RequestContext context) {
+		Object defaultValue = stack.pop();
+		Object name = stack.pop();
+
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in paramGet function has to be string.");
+		}
+
+		String value = context.getParameter((String) name);
+		stack.push(value == null ? defaultValue : value);
+	}
+
+	/**
+	 * Pushes persistent parameter, or default value if there is no such
+	 * parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void pparamGet(OperandStack stack, RequestContext context) {
+		Object defaultValue = stack.pop();
+		Object name = stack.pop();
+
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in pparamGet function has to be string.");
+		}
+
+		String value = context.getPersistentParameter((String) name);
+		stack.push(value == null ? defaultValue : value);
+	}
+
+	/**
+	 * Sets persistent parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void pparamSet(OperandStack stack, RequestContext context) {
+		Object name = stack.pop();
+		Object value = stack.pop();
+
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in pparamSet function has to be string.");
+		}
+
+		context.setPersistentParameter((String) name, value.toString());
+	}
+
+	/**
+	 * Removes persistent parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void pparamDel(OperandStack stack, RequestContext context) {
+		Object name = stack.pop();
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in pparamDel function has to be string.");
+		}
+
+		context.removePersistentParameter((String) name);
+	}
+
+	/**
+	 * Pushes temporary parameter, or default value if there is no such
+	 * parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void tparamGet(OperandStack stack, RequestContext context) {
+		Object defaultValue = stack.pop();
+		Object name = stack.pop();
+
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in tparamGet function has to be string.");
+		}
+
+		String value = context.getTemporaryParameter(name.toString());
+		stack.push(value == null ? defaultValue.toString() : value);
+	}
+
+	/**
+	 * Sets temporary parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void tparamSet(OperandStack stack, RequestContext context) {
+		Object name = stack.pop();
+		Object value = stack.pop();
+
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in tparamSet function has to be string.");
+		}
+
+		context.setTemporaryParameter((String) name, value.toString());
+	}
+
+	/**
+	 * Removes temporary parameter.
+	 * 
+	 * @param stack
+	 *            Operand stack.
+	 * @param context
+	 *            Request context.
+	 */
+
+	private static void tparamDel(OperandStack stack, RequestContext context) {
+		Object name = stack.pop();
+		if (!(name instanceof String)) {
+			throw new RuntimeException("Name parameter in tparamDel function has to be string.");
+		}
+
+		context.removeTemporaryParameter((String) name);
+	}
+
+	/**
+	 * Converts string, integer or double to double.
+	 * 
+	 * @param value
+	 *            Value.
+	 * @return Double value.
+	 */
+
+	private static Double convertToDouble(Object value) {
+		if (value instanceof String) {
+			return Double.parseDouble((String) value);
+		}
+		if (value instanceof Double) {
+			return (Double) value;
+		}
+
+		return ((Integer) value).doubleValue();
+	}
+
+	/**
+	 * Compiled node of script.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	@FunctionalInterface
+	private static interface Instruction {
+		/**
+		 * Executes instruction.
+		 * 
+		 * @param context
+		 *            Request context.
+		 * @param multistack
+		 *            Variables of for loops.
+		 * @param stack
+		 *            Operand stack of echo tags.
+		 * @throws IOException
+		 *             If output couldn't be written.
+		 */
+
+		void execute(RequestContext context, IndexedMultistack multistack, OperandStack stack) throws IOException;
+	}
+
+	/**
+	 * Compiled element of echo tag that works on operand stack.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	@FunctionalInterface
+	private static interface Operation {
+		/**
+		 * Applies operation.
+		 * 
+		 * @param stack
+		 *            Operand stack.
+		 * @param context
+		 *            Request context.
+		 * @param multistack
+		 *            Variables of for loops.
+		 */
+
+		void apply(OperandStack stack, RequestContext context, IndexedMultistack multistack);
+	}
+
+	/**
+	 * Compiled expression of for loop.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	@FunctionalInterface
+	private static interface Expression {
+		/**
+		 * Evaluates expression.
+		 * 
+		 * @param multistack
+		 *            Variables of for loops.
+		 * @return Integer, double or value of variable.
+		 */
+
+		Object evaluate(IndexedMultistack multistack);
+	}
+}
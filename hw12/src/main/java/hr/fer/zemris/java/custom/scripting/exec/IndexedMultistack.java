@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+/**
+ * Multistack whose keys are numeric slots instead of Strings. Each slot has
+ * its own virtual stack of ValueWrapper objects and top of every stack is
+ * kept in array, so access to value is plain array read. Slots are assigned
+ * to names when script is compiled and names are used only in error
+ * messages.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class IndexedMultistack {
+
+	/**
+	 * Class represents node in stack list.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class MultistackEntry {
+		/**
+		 * Valuewrapper object.
+		 */
+		private ValueWrapper valueWrapper;
+		/**
+		 * Reference to next node in stack list.
+		 */
+		private MultistackEntry next;
+
+		/**
+		 * Sets node attributes.
+		 * 
+		 * @param valueWrapper
+		 *            Value.
+		 * @param next
+		 *            Reference to next node in stack list.
+		 */
+
+		private MultistackEntry(ValueWrapper valueWrapper, MultistackEntry next) {
+			this.valueWrapper = valueWrapper;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Names of slots.
+	 */
+	private String[] names;
+	/**
+	 * Tops of stack lists by slot.
+	 */
+	private MultistackEntry[] entries;
+
+	/**
+	 * Creates stack for every slot.
+	 * 
+	 * @param names
+	 *            Names of slots, indexed by slot.
+	 * @throws IllegalArgumentException
+	 *             If names are null.
+	 */
+
+	public IndexedMultistack(String[] names) throws IllegalArgumentException {
+		if (names == null) {
+			throw new IllegalArgumentException("null values are not allowed.");
+		}
+
+		this.names = names;
+		entries = new MultistackEntry[names.length];
+	}
+
+	/**
+	 * Pushes new value to stack of given slot. Value can't be null.
+	 * 
+	 * @param slot
+	 *            Slot.
+	 * @param valueWrapper
+	 *            Value.
+	 * @throws IllegalArgumentException
+	 *             If value is null.
+	 */
+
+	public void push(int slot, ValueWrapper valueWrapper) throws IllegalArgumentException {
+		if (valueWrapper == null) {
+			throw new IllegalArgumentException("null values are not allowed.");
+		}
+
+		entries[slot] = new MultistackEntry(valueWrapper, entries[slot]);
+	}
+
+	/**
+	 * Gets value from top of stack for given slot. Value is removed from stack
+	 * afterwards.
+	 * 
+	 * @param slot
+	 *            Slot.
+	 * @return Value from top of stack for given slot.
+	 * @throws ObjectMultistackException
+	 *             If stack for given slot is empty.
+	 */
+
+	public ValueWrapper pop(int slot) throws ObjectMultistackException {
+		MultistackEntry entry = entries[slot];
+		if (entry == null) {
+			throw new ObjectMultistackException(String.format("Stack for key %s is empty.", names[slot]));
+		}
+
+		entries[slot] = entry.next;
+		return entry.valueWrapper;
+	}
+
+	/**
+	 * Gets first value in stack from given slot.
+	 * 
+	 * @param slot
+	 *            Slot.
+	 * @return Value at top of stack for given slot.
+	 * @throws ObjectMultistackException
+	 *             If stack is empty.
+	 */
+
+	public ValueWrapper peek(int slot) throws ObjectMultistackException {
+		MultistackEntry entry = entries[slot];
+		if (entry == null) {
+			throw new ObjectMultistackException(String.format("Stack for key %s is empty.", names[slot]));
+		}
+
+		return entry.valueWrapper;
+	}
+
+	/**
+	 * Checks if stack for given slot is empty.
+	 * 
+	 * @param slot
+	 *            Slot.
+	 * @return True if stack for given slot is empty, false otherwise.
+	 */
+
+	public boolean isEmpty(int slot) {
+		return entries[slot] == null;
+	}
+}
@@ -0,0 +1,145 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Operand stack used while echo tags are executed. Stack is backed by array
+ * that grows when it is full and isn't synchronized, so it has to be used by
+ * single thread. Same stack is cleared and reused for every echo tag of one
+ * execution of script, and its elements can be read from bottom to top
+ * without popping them.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class OperandStack {
+	/**
+	 * Initial capacity of stack.
+	 */
+	private static final int initialCapacity = 16;
+	/**
+	 * Elements of stack, bottom first.
+	 */
+	private Object[] elements = new Object[initialCapacity];
+	/**
+	 * Number of elements on stack.
+	 */
+	private int size;
+
+	/**
+	 * Pushes value on top of stack.
+	 * 
+	 * @param value
+	 *            Value.
+	 */
+
+	public void push(Object value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size * 2);
+		}
+
+		elements[size++] = value;
+	}
+
+	/**
+	 * Removes value from top of stack.
+	 * 
+	 * @return Value from top of stack.
+	 * @throws EmptyStackException
+	 *             If stack is empty.
+	 */
+
+	public Object pop() throws EmptyStackException {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+
+		Object value = elements[--size];
+		elements[size] = null;
+		return value;
+	}
+
+	/**
+	 * Gets value from top of stack without removing it.
+	 * 
+	 * @return Value from top of stack.
+	 * @throws EmptyStackException
+	 *             If stack is empty.
+	 */
+
+	public Object peek() throws EmptyStackException {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+
+		return elements[size - 1];
+	}
+
+	/**
+	 * Gets value at given position, counted from bottom of stack.
+	 * 
+	 * @param index
+	 *            Position of value.
+	 * @return Value.
+	 * @throws IndexOutOfBoundsException
+	 *             If there is no value at given position.
+	 */
+
+	public Object get(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+
+		return elements[index];
+	}
+
+	/**
+	 * Replaces value at given position, counted from bottom of stack.
+	 * 
+	 * @param index
+	 *            Position of value.
+	 * @param value
+	 *            New value.
+	 * @throws IndexOutOfBoundsException
+	 *             If there is no value at given position.
+	 */
+
+	public void set(int index, Object value) throws IndexOutOfBoundsException {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+
+		elements[index] = value;
+	}
+
+	/**
+	 * Gets number of values on stack.
+	 * 
+	 * @return Number of values.
+	 */
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if stack is empty.
+	 * 
+	 * @return True if stack is empty, false otherwise.
+	 */
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values from stack.
+	 */
+
+	public void clear() {
+		Arrays.fill(elements, 0, size, null);
+		size = 0;
+	}
+}
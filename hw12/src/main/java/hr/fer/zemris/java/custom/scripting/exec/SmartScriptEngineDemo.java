@@ -34,8 +34,9 @@ public class SmartScriptEngineDemo {
 		// put some parameter into parameters map
 		parameters.put("broj", "4");
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, parameters, persistentParameters, cookies)).execute();
+		RequestContext rc = new RequestContext(System.out, parameters, persistentParameters, cookies);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		rc.finish();
 
 	}
 }
@@ -36,8 +36,9 @@ public class SmartScriptEngineDemo2 {
 		parameters.put("a", "4");
 		parameters.put("b", "2");
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, parameters, persistentParameters, cookies)).execute();
+		RequestContext rc = new RequestContext(System.out, parameters, persistentParameters, cookies);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		rc.finish();
 
 	}
 }
@@ -37,6 +37,7 @@ public class SmartScriptEngineDemo3 {
 		RequestContext rc = new RequestContext(System.out, parameters, persistentParameters, cookies);
 
 		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		rc.finish();
 		System.out.println("Vrijednost u mapi: " + rc.getPersistentParameter("brojPoziva"));
 
 	}
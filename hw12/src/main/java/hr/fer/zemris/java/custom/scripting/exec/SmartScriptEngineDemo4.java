@@ -33,7 +33,8 @@ public class SmartScriptEngineDemo4 {
 		Map<String, String> persistentParameters = new HashMap<String, String>();
 		List<RCCookie> cookies = new ArrayList<RequestContext.RCCookie>();
 		// create engine and execute it
-		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(),
-				new RequestContext(System.out, parameters, persistentParameters, cookies)).execute();
+		RequestContext rc = new RequestContext(System.out, parameters, persistentParameters, cookies);
+		new SmartScriptEngine(new SmartScriptParser(documentBody).getDocumentNode(), rc).execute();
+		rc.finish();
 	}
 }
@@ -1,12 +1,18 @@
 package hr.fer.zemris.java.custom.scripting.exec;
 
-import java.util.function.BiFunction;
+import java.util.function.DoubleBinaryOperator;
 
 /**
  * Value wrapper that stores object of any kind. But in case arithmetic or
  * comparison methods are called value and other object have to be either null,
  * String, Double or Integer type. If any object is null it is treated as
  * integer of value 0. If any object is String it is converted into number.
+ * <p>
+ * Numeric value is kept in primitive fields together with its type, so
+ * arithmetic and numbers set with {@link #setValue(int)} or
+ * {@link #setValue(double)} don't allocate. Value is boxed only when it is
+ * requested by {@link #getValue()}, and string value is parsed only once.
+ * </p>
  * 
  * @author Mihael Jaić
  *
@@ -14,9 +20,47 @@ import java.util.function.BiFunction;
 
 public class ValueWrapper {
 	/**
-	 * Wrapped value.
+	 * Types of numeric value.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static enum NumberType {
+		/**
+		 * Value isn't converted into number yet.
+		 */
+		NONE,
+		/**
+		 * Value is integer.
+		 */
+		INTEGER,
+		/**
+		 * Value is double.
+		 */
+		DOUBLE
+	}
+
+	/**
+	 * Wrapped value, valid only if it is boxed.
 	 */
 	private Object value;
+	/**
+	 * Flag that tells if value holds wrapped object.
+	 */
+	private boolean boxed;
+	/**
+	 * Type of numeric value.
+	 */
+	private NumberType numberType = NumberType.NONE;
+	/**
+	 * Integer value, valid if number type is integer.
+	 */
+	private int intValue;
+	/**
+	 * Double value, valid if number type is double.
+	 */
+	private double doubleValue;
 
 	/**
 	 * Sets value.
@@ -28,16 +72,47 @@ public class ValueWrapper {
 	public ValueWrapper(Object value) {
 		super();
 
-		this.value = value;
+		setValue(value);
+	}
+
+	/**
+	 * Sets integer value without boxing it.
+	 * 
+	 * @param value
+	 *            Value.
+	 */
+
+	public ValueWrapper(int value) {
+		super();
+
+		setValue(value);
 	}
 
 	/**
-	 * Gets value.
+	 * Sets double value without boxing it.
+	 * 
+	 * @param value
+	 *            Value.
+	 */
+
+	public ValueWrapper(double value) {
+		super();
+
+		setValue(value);
+	}
+
+	/**
+	 * Gets value. Number that was stored as primitive is boxed on first call.
 	 * 
 	 * @return Value.
 	 */
 
 	public Object getValue() {
+		if (!boxed) {
+			value = numberType == NumberType.INTEGER ? (Object) Integer.valueOf(intValue) : Double.valueOf(doubleValue);
+			boxed = true;
+		}
+
 		return value;
 	}
 
@@ -50,6 +125,36 @@ public class ValueWrapper {
 
 	public void setValue(Object value) {
 		this.value = value;
+		boxed = true;
+		numberType = NumberType.NONE;
+	}
+
+	/**
+	 * Sets integer value without boxing it.
+	 * 
+	 * @param value
+	 *            New value.
+	 */
+
+	public void setValue(int value) {
+		intValue = value;
+		numberType = NumberType.INTEGER;
+		this.value = null;
+		boxed = false;
+	}
+
+	/**
+	 * Sets double value without boxing it.
+	 * 
+	 * @param value
+	 *            New value.
+	 */
+
+	public void setValue(double value) {
+		doubleValue = value;
+		numberType = NumberType.DOUBLE;
+		this.value = null;
+		boxed = false;
 	}
 
 	/**
@@ -66,9 +171,8 @@ public class ValueWrapper {
 
 	public void add(Object incValue) throws RuntimeException {
 		Object other = convert(incValue);
-		value = convert(value);
 
-		value = performOperation(value, other, (a, b) -> a + b);
+		performOperation(other, (a, b) -> a + b);
 	}
 
 	/**
@@ -86,9 +190,8 @@ public class ValueWrapper {
 
 	public void subtract(Object decValue) throws RuntimeException {
 		Object other = convert(decValue);
-		value = convert(value);
 
-		value = performOperation(value, other, (a, b) -> a - b);
+		performOperation(other, (a, b) -> a - b);
 	}
 
 	/**
@@ -106,9 +209,8 @@ public class ValueWrapper {
 
 	public void multiply(Object mulValue) throws RuntimeException {
 		Object other = convert(mulValue);
-		value = convert(value);
 
-		value = performOperation(value, other, (a, b) -> a * b);
+		performOperation(other, (a, b) -> a * b);
 	}
 
 	/**
@@ -126,15 +228,13 @@ public class ValueWrapper {
 
 	public void divide(Object divValue) throws RuntimeException {
 		Object other = convert(divValue);
-		
+
 		if (other instanceof Double && ((Double) other).compareTo(0.0) == 0
 				|| (other instanceof Integer && (Integer) other == 0)) {
 			throw new RuntimeException("Division by zero.");
 		}
-		
-		value = convert(value);
 
-		value = performOperation(value, other, (a, b) -> a / b);
+		performOperation(other, (a, b) -> a / b);
 	}
 
 	/**
@@ -154,16 +254,14 @@ public class ValueWrapper {
 
 	public int numCompare(Object withValue) throws RuntimeException {
 		Object other = convert(withValue);
-		// Doesn't change current value.
-		Object tempValue = convert(value);
-
-		Object temp = performOperation(tempValue, other, (a, b) -> a - b);
+		// Doesn't change current value, string value is only parsed.
+		parseValue();
 
-		if (temp instanceof Double) {
-			return Double.compare((Double) temp, 0.0);
+		if (numberType == NumberType.INTEGER && other instanceof Integer) {
+			return Integer.compare(intValue, (Integer) other);
 		}
 
-		return Integer.compare((Integer) temp, 0);
+		return Double.compare(doubleValue() - ((Number) other).doubleValue(), 0.0);
 	}
 
 	/**
@@ -175,13 +273,13 @@ public class ValueWrapper {
 	 * @return Object transformed into number.
 	 */
 
-	private Object convert(Object object) {
+	private static Object convert(Object object) {
 		if (!validType(object)) {
 			throw new RuntimeException(String.format("Operand %s is invalid type.", object));
 		}
 
 		if (object == null) {
-			return new Integer(0);
+			return Integer.valueOf(0);
 		}
 
 		if (object instanceof String) {
@@ -198,34 +296,61 @@ public class ValueWrapper {
 	}
 
 	/**
-	 * Performs given BiFunction operation on value and other Object. Result of
-	 * operation is Double if any of operands is Double. If both operands are
-	 * Integers result is Integer.
+	 * Converts wrapped value into number held in primitive fields, unless it
+	 * is already converted. Wrapped object isn't changed, so string is parsed
+	 * only once even if value is only compared.
 	 * 
-	 * @param tempValue
-	 *            Temporary value stored in wrapper.
+	 * @throws RuntimeException
+	 *             If value is invalid type.
+	 */
+
+	private void parseValue() throws RuntimeException {
+		if (numberType != NumberType.NONE) {
+			return;
+		}
+
+		Object number = convert(value);
+		if (number instanceof Integer) {
+			intValue = (Integer) number;
+			numberType = NumberType.INTEGER;
+		} else {
+			doubleValue = (Double) number;
+			numberType = NumberType.DOUBLE;
+		}
+	}
+
+	/**
+	 * Gets numeric value as double. Value has to be converted into number.
+	 * 
+	 * @return Value as double.
+	 */
+
+	private double doubleValue() {
+		return numberType == NumberType.INTEGER ? intValue : doubleValue;
+	}
+
+	/**
+	 * Performs given operation on value and other number and stores its
+	 * result. Result of operation is double if any of operands is double. If
+	 * both operands are integers result is integer, computed as double and
+	 * truncated.
 	 * 
 	 * @param other
-	 *            Other Object.
+	 *            Other number, Integer or Double.
 	 * @param operation
 	 *            Operation.
-	 * @return Result of operation.
+	 * @throws RuntimeException
+	 *             If value is invalid type.
 	 */
 
-	private Object performOperation(Object tempValue, Object other, BiFunction<Double, Double, Double> operation) {
-		if (tempValue instanceof Double && other instanceof Double) {
-			return operation.apply((Double) tempValue, (Double) other);
-		}
-
-		if (tempValue instanceof Double && other instanceof Integer) {
-			return operation.apply((Double) tempValue, Double.valueOf((Integer) other));
-		}
+	private void performOperation(Object other, DoubleBinaryOperator operation) throws RuntimeException {
+		parseValue();
 
-		if (tempValue instanceof Integer && other instanceof Double) {
-			return operation.apply(Double.valueOf((Integer) tempValue), (Double) other);
+		if (numberType == NumberType.INTEGER && other instanceof Integer) {
+			setValue((int) operation.applyAsDouble(intValue, (Integer) other));
+		} else {
+			setValue(operation.applyAsDouble(doubleValue(), ((Number) other).doubleValue()));
 		}
-
-		return operation.apply(Double.valueOf((Integer) tempValue), Double.valueOf((Integer) other)).intValue();
 	}
 
 	/**
@@ -236,7 +361,7 @@ public class ValueWrapper {
 	 * @return True if object is valid type, false otherwise.
 	 */
 
-	private boolean validType(Object other) {
+	private static boolean validType(Object other) {
 		return other == null || other instanceof Integer || other instanceof Double || other instanceof String;
 	}
 
@@ -250,7 +375,7 @@ public class ValueWrapper {
 	 * @return Number of type Double or Integer.
 	 */
 
-	private Object convertStringToNumber(String s) {
+	private static Object convertStringToNumber(String s) {
 		if (isDecimal(s)) {
 			return Double.parseDouble(s);
 		}
@@ -266,8 +391,9 @@ public class ValueWrapper {
 	 * @return True if given string could be decimal value, false otherwise.
 	 */
 
-	private boolean isDecimal(String s) {
-		for (Character c : s.toCharArray()) {
+	private static boolean isDecimal(String s) {
+		for (int i = 0, length = s.length(); i < length; i++) {
+			char c = s.charAt(i);
 			if (c == '.' || c == 'e' || c == 'E') {
 				return true;
 			}
@@ -278,6 +404,7 @@ public class ValueWrapper {
 
 	@Override
 	public String toString() {
+		Object value = getValue();
 		if (value == null) {
 			return "";
 		}
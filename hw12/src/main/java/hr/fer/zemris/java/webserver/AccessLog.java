@@ -0,0 +1,465 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log of {@link SmartHttpServer}. Client workers only put log
+ * records into bounded lock-free ring buffer and never wait for console or
+ * disk. Single background thread takes records from buffer and writes them in
+ * batches either to standard output or to log file that is rotated when it
+ * grows too large. If buffer is full records are dropped and counted. Records
+ * below configured level are ignored and access records can be sampled so only
+ * part of requests is logged.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class AccessLog {
+	/**
+	 * Log levels.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static enum Level {
+		/**
+		 * Verbose records, such as whole request and response headers.
+		 */
+		DEBUG,
+		/**
+		 * Access records and other normal events.
+		 */
+		INFO,
+		/**
+		 * Errors while serving requests.
+		 */
+		WARN,
+		/**
+		 * Nothing is logged.
+		 */
+		OFF
+	}
+
+	/**
+	 * Maximum number of records written before output is flushed.
+	 */
+	private static final int batchSize = 256;
+	/**
+	 * Longest time in nanoseconds that writer waits when buffer is empty.
+	 * Writer is woken up by first record put in empty buffer, so this only
+	 * bounds waiting.
+	 */
+	private static final long idleWait = TimeUnit.SECONDS.toNanos(1);
+	/**
+	 * Minimum level of logged records.
+	 */
+	private Level level;
+	/**
+	 * Part of access records that is logged.
+	 */
+	private double sampleRate;
+	/**
+	 * Path to log file, or null if records are written to standard output.
+	 */
+	private Path file;
+	/**
+	 * Size of log file in bytes after which it is rotated.
+	 */
+	private long maxFileSize;
+	/**
+	 * Number of rotated log files that are kept.
+	 */
+	private int maxFiles;
+	/**
+	 * Records in ring buffer.
+	 */
+	private String[] records;
+	/**
+	 * Sequence numbers of ring buffer slots. Slot is free for producer when its
+	 * sequence equals producer's position and filled for writer when it equals
+	 * writer's position plus one.
+	 */
+	private AtomicLongArray sequences;
+	/**
+	 * Mask used to calculate slot index from position.
+	 */
+	private int mask;
+	/**
+	 * Next position that producers claim.
+	 */
+	private AtomicLong tail = new AtomicLong();
+	/**
+	 * Next position that writer reads, used only by writer thread.
+	 */
+	private long head;
+	/**
+	 * Number of records dropped because buffer was full.
+	 */
+	private AtomicLong dropped = new AtomicLong();
+	/**
+	 * Flag that tells if log is closing.
+	 */
+	private volatile boolean closing;
+	/**
+	 * Flag that tells if writer is waiting for records and has to be woken up.
+	 */
+	private volatile boolean idle;
+	/**
+	 * Writer thread.
+	 */
+	private Thread writerThread;
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param level
+	 *            Minimum level of logged records.
+	 * @param sampleRate
+	 *            Part of access records that is logged, between 0 and 1.
+	 * @param file
+	 *            Path to log file, or null for standard output.
+	 * @param maxFileSize
+	 *            Size of log file in bytes after which it is rotated.
+	 * @param maxFiles
+	 *            Number of rotated log files that are kept.
+	 * @param capacity
+	 *            Capacity of ring buffer, rounded up to power of two.
+	 * @throws IllegalArgumentException
+	 *             If level is null or capacity isn't positive.
+	 */
+
+	public AccessLog(Level level, double sampleRate, Path file, long maxFileSize, int maxFiles, int capacity)
+			throws IllegalArgumentException {
+		if (level == null || capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		this.level = level;
+		this.sampleRate = sampleRate;
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = maxFiles;
+
+		int size = Integer.highestOneBit(capacity - 1) << 1;
+		size = Math.max(size, 1);
+		records = new String[size];
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Starts writer thread.
+	 */
+
+	public void start() {
+		writerThread = new Thread(this::writeRecords);
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Writes remaining records and stops writer thread.
+	 */
+
+	public void close() {
+		closing = true;
+		if (writerThread == null) {
+			return;
+		}
+
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException ignorable) {
+		}
+	}
+
+	/**
+	 * Checks if records of given level are logged.
+	 * 
+	 * @param level
+	 *            Level.
+	 * @return True if records of given level are logged, false otherwise.
+	 */
+
+	public boolean isEnabled(Level level) {
+		return level != Level.OFF && level.compareTo(this.level) >= 0;
+	}
+
+	/**
+	 * Logs record of given level.
+	 * 
+	 * @param level
+	 *            Level.
+	 * @param message
+	 *            Message.
+	 */
+
+	public void log(Level level, String message) {
+		if (isEnabled(level)) {
+			offer(level.name() + " " + message);
+		}
+	}
+
+	/**
+	 * Logs access record of served request. Only sampled part of requests is
+	 * logged.
+	 * 
+	 * @param client
+	 *            Client address.
+	 * @param requestLine
+	 *            First line of request.
+	 * @param statusCode
+	 *            Status code of response.
+	 * @param bytesSent
+	 *            Number of body bytes sent.
+	 * @param latencyNanos
+	 *            Time in nanoseconds spent serving request.
+	 */
+
+	public void access(String client, String requestLine, int statusCode, long bytesSent, long latencyNanos) {
+		if (!isEnabled(Level.INFO)
+				|| (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+			return;
+		}
+
+		offer(String.format("INFO %s \"%s\" %d %d %dus", client, requestLine, statusCode, bytesSent,
+				latencyNanos / 1000));
+	}
+
+	/**
+	 * Gets number of records dropped because buffer was full.
+	 * 
+	 * @return Number of dropped records.
+	 */
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Puts record in ring buffer. If buffer is full record is dropped.
+	 * 
+	 * @param record
+	 *            Record.
+	 */
+
+	private void offer(String record) {
+		long position;
+		int index;
+		while (true) {
+			position = tail.get();
+			index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if (sequence < position) {
+				dropped.incrementAndGet();
+				return;
+			}
+
+			if (sequence == position && tail.compareAndSet(position, position + 1)) {
+				break;
+			}
+		}
+
+		records[index] = record;
+		// Volatile write, so either writer sees record or producer sees idle writer.
+		sequences.set(index, position + 1);
+		if (idle) {
+			LockSupport.unpark(writerThread);
+		}
+	}
+
+	/**
+	 * Checks if next record is in ring buffer.
+	 * 
+	 * @return True if record can be taken, false otherwise.
+	 */
+
+	private boolean hasRecord() {
+		return sequences.get((int) head & mask) == head + 1;
+	}
+
+	/**
+	 * Takes next record from ring buffer.
+	 * 
+	 * @return Record or null if buffer is empty.
+	 */
+
+	private String poll() {
+		int index = (int) head & mask;
+		if (sequences.get(index) != head + 1) {
+			return null;
+		}
+
+		String record = records[index];
+		records[index] = null;
+		sequences.lazySet(index, head + records.length);
+		head++;
+		return record;
+	}
+
+	/**
+	 * Takes records from buffer and writes them in batches until log is closed.
+	 */
+
+	private void writeRecords() {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		Writer writer = null;
+		long fileSize = 0;
+		try {
+			writer = openWriter();
+			fileSize = file == null ? 0 : Files.size(file);
+		} catch (IOException e) {
+			System.out.println("Couldn't open log file, logging to standard output.");
+			file = null;
+			writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		}
+
+		while (true) {
+			int written = 0;
+			String record;
+			try {
+				while (written < batchSize && (record = poll()) != null) {
+					String line = sdf.format(new Date()) + " " + record + System.lineSeparator();
+					writer.write(line);
+					fileSize += line.length();
+					written++;
+				}
+
+				if (written == 0) {
+					writer.flush();
+					if (closing) {
+						break;
+					}
+					idle = true;
+					if (!hasRecord() && !closing) {
+						LockSupport.parkNanos(this, idleWait);
+					}
+					idle = false;
+					continue;
+				}
+			} catch (IOException e) {
+				// Records are lost, but workers must never be stopped by log.
+				dropped.addAndGet(written);
+				writer = fallBack(writer);
+				continue;
+			}
+
+			if (file != null && fileSize > maxFileSize) {
+				try {
+					writer.close();
+					rotate();
+					writer = openWriter();
+					fileSize = 0;
+				} catch (IOException e) {
+					writer = fallBack(writer);
+				}
+			}
+		}
+
+		try {
+			if (file == null) {
+				writer.flush();
+			} else {
+				writer.close();
+			}
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * Switches logging to standard output after log file failed, so writer
+	 * doesn't keep failing on closed or broken file.
+	 * 
+	 * @param writer
+	 *            Writer that failed.
+	 * @return Writer to standard output.
+	 */
+
+	private Writer fallBack(Writer writer) {
+		if (file == null) {
+			return writer;
+		}
+
+		try {
+			writer.close();
+		} catch (IOException ignorable) {
+		}
+		System.out.println("Couldn't write log file, logging to standard output.");
+		file = null;
+		return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Opens writer to log file or standard output.
+	 * 
+	 * @return Writer.
+	 * @throws IOException
+	 *             If log file couldn't be opened.
+	 */
+
+	private Writer openWriter() throws IOException {
+		if (file == null) {
+			return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		}
+
+		return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Renames log file so new one can be started. Oldest rotated file is
+	 * deleted.
+	 * 
+	 * @throws IOException
+	 *             If files couldn't be renamed.
+	 */
+
+	private void rotate() throws IOException {
+		Files.deleteIfExists(rotated(maxFiles));
+		for (int i = maxFiles - 1; i >= 1; i--) {
+			if (Files.exists(rotated(i))) {
+				Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		if (maxFiles > 0) {
+			Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Gets path of rotated log file with given index.
+	 * 
+	 * @param index
+	 *            Index of rotated file.
+	 * @return Path of rotated file.
+	 */
+
+	private Path rotated(int index) {
+		return Paths.get(file.toString() + "." + index);
+	}
+}
@@ -0,0 +1,226 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which clients are given to worker threads, so server degrades
+ * predictably when it gets more clients than it can serve. Number of clients
+ * whose request is served or waits for worker thread is limited, as is number
+ * of such clients from single address. Kept alive connection that waits for
+ * next request isn't counted. Client that waited for worker thread longer
+ * than allowed is shed instead of served, because its client probably already
+ * gave up. Rejected client gets "503 Service Unavailable" with Retry-After
+ * field or its connection is just closed, depending on policy.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class AdmissionControl {
+	/**
+	 * Reason of rejection when server has too many clients.
+	 */
+	public static final String queueFull = "queue_full";
+	/**
+	 * Reason of rejection when address has too many clients.
+	 */
+	public static final String clientLimit = "client_limit";
+	/**
+	 * Reason of rejection when client waited too long for worker thread.
+	 */
+	public static final String queueTime = "queue_time";
+	/**
+	 * Body of rejection response.
+	 */
+	private static final String rejectionBody = "503 Server is overloaded, try again later.\n";
+	/**
+	 * Policy of rejection.
+	 */
+	private Policy policy;
+	/**
+	 * Rejection response.
+	 */
+	private byte[] rejection;
+	/**
+	 * Maximum number of admitted clients, or 0 if it isn't limited.
+	 */
+	private int maxClients;
+	/**
+	 * Maximum number of admitted clients from single address, or 0 if it
+	 * isn't limited.
+	 */
+	private int maxClientsPerAddress;
+	/**
+	 * Maximum time in nanoseconds that client waits for worker thread, or 0
+	 * if it isn't limited.
+	 */
+	private long maxQueueNanos;
+	/**
+	 * Number of admitted clients.
+	 */
+	private AtomicInteger clients = new AtomicInteger();
+	/**
+	 * Number of admitted clients of every address that has them.
+	 */
+	private ConcurrentMap<InetAddress, Integer> addressClients = new ConcurrentHashMap<>();
+	/**
+	 * Server metrics.
+	 */
+	private ServerMetrics metrics;
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param policy
+	 *            Policy of rejection.
+	 * @param retryAfter
+	 *            Number of seconds after which rejected client can try again.
+	 * @param maxClients
+	 *            Maximum number of admitted clients, or 0 if it isn't limited.
+	 * @param maxClientsPerAddress
+	 *            Maximum number of admitted clients from single address, or 0
+	 *            if it isn't limited.
+	 * @param maxQueueTime
+	 *            Maximum time in milliseconds that client waits for worker
+	 *            thread, or 0 if it isn't limited.
+	 * @param metrics
+	 *            Server metrics.
+	 * @throws IllegalArgumentException
+	 *             If policy or metrics are null or maximum number of clients
+	 *             is negative.
+	 */
+
+	public AdmissionControl(Policy policy, int retryAfter, int maxClients, int maxClientsPerAddress,
+			long maxQueueTime, ServerMetrics metrics) throws IllegalArgumentException {
+		if (policy == null || metrics == null || maxClients < 0) {
+			throw new IllegalArgumentException();
+		}
+
+		this.policy = policy;
+		this.maxClients = maxClients;
+		this.maxClientsPerAddress = maxClientsPerAddress;
+		this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueTime);
+		this.metrics = metrics;
+		this.rejection = String.format(
+				"HTTP/1.1 503 Service Unavailable\r\nContent-Type: text/plain; charset=UTF-8\r\n"
+						+ "Content-Length: %d\r\nRetry-After: %d\r\nConnection: close\r\n\r\n%s",
+				rejectionBody.length(), retryAfter, rejectionBody).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Admits client if server and client's address are under their limits.
+	 * Admitted client has to be released when it stops using worker thread or
+	 * starts waiting for next request.
+	 * 
+	 * @param address
+	 *            Address of client.
+	 * @return Null if client is admitted, reason of rejection otherwise.
+	 */
+
+	public String admit(InetAddress address) {
+		if (clients.incrementAndGet() > maxClients && maxClients > 0) {
+			clients.decrementAndGet();
+			return queueFull;
+		}
+
+		if (maxClientsPerAddress > 0
+				&& addressClients.merge(address, 1, Integer::sum) > maxClientsPerAddress) {
+			release(address);
+			return clientLimit;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Releases admitted client.
+	 * 
+	 * @param address
+	 *            Address of client.
+	 */
+
+	public void release(InetAddress address) {
+		if (maxClientsPerAddress > 0) {
+			// Address without clients is removed so map doesn't grow.
+			addressClients.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+		}
+		clients.decrementAndGet();
+	}
+
+	/**
+	 * Gets number of addresses that have admitted clients.
+	 * 
+	 * @return Number of addresses.
+	 */
+
+	int getAddressCount() {
+		return addressClients.size();
+	}
+
+	/**
+	 * Checks if client waited for worker thread longer than allowed.
+	 * 
+	 * @param queuedAt
+	 *            Time in nanoseconds when client was given to thread pool.
+	 * @return True if client is shed, false otherwise.
+	 */
+
+	public boolean isExpired(long queuedAt) {
+		return maxQueueNanos > 0 && System.nanoTime() - queuedAt > maxQueueNanos;
+	}
+
+	/**
+	 * Rejects client according to policy and closes its socket.
+	 * 
+	 * @param socket
+	 *            Client's socket.
+	 * @param reason
+	 *            Reason of rejection.
+	 */
+
+	public void reject(Socket socket, String reason) {
+		metrics.clientRejected(reason);
+		try {
+			if (policy == Policy.REJECT) {
+				OutputStream os = socket.getOutputStream();
+				os.write(rejection);
+				os.flush();
+				socket.shutdownOutput();
+			}
+		} catch (IOException ignorable) {
+		}
+
+		metrics.connectionClosed();
+		try {
+			socket.close();
+		} catch (IOException e) {
+			System.out.println("Couldn't close client socket.");
+		}
+	}
+
+	/**
+	 * Policy of rejection.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static enum Policy {
+		/**
+		 * Client gets "503 Service Unavailable" with Retry-After field.
+		 */
+		REJECT,
+		/**
+		 * Connection is closed without response.
+		 */
+		CLOSE
+	}
+}
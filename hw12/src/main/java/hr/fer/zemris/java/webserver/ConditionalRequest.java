@@ -0,0 +1,330 @@
+package hr.fer.zemris.java.webserver;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Conditional and range fields of request for static file. Files are
+ * validated by strong entity tag made from their size and modification time
+ * and by their modification time. Client that already has current file gets
+ * "304 Not Modified" without body, and client that asks for single byte range
+ * gets only that part of file, so interrupted downloads can be resumed.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ConditionalRequest {
+	/**
+	 * Format of dates in header fields.
+	 */
+	private static final DateTimeFormatter httpDate = DateTimeFormatter
+			.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+	/**
+	 * Value of If-None-Match field, or null.
+	 */
+	private String ifNoneMatch;
+	/**
+	 * Value of If-Modified-Since field, or null.
+	 */
+	private String ifModifiedSince;
+	/**
+	 * Value of Range field, or null.
+	 */
+	private String range;
+	/**
+	 * Value of If-Range field, or null.
+	 */
+	private String ifRange;
+
+	/**
+	 * Constructor that sets values of request fields, any of them can be
+	 * null.
+	 * 
+	 * @param ifNoneMatch
+	 *            Value of If-None-Match field.
+	 * @param ifModifiedSince
+	 *            Value of If-Modified-Since field.
+	 * @param range
+	 *            Value of Range field.
+	 * @param ifRange
+	 *            Value of If-Range field.
+	 */
+
+	public ConditionalRequest(String ifNoneMatch, String ifModifiedSince, String range, String ifRange) {
+		this.ifNoneMatch = ifNoneMatch;
+		this.ifModifiedSince = ifModifiedSince;
+		this.range = range;
+		this.ifRange = ifRange;
+	}
+
+	/**
+	 * Creates strong entity tag of file.
+	 * 
+	 * @param size
+	 *            Size of file in bytes.
+	 * @param modified
+	 *            Time of last modification in milliseconds.
+	 * @return Quoted entity tag.
+	 */
+
+	public static String entityTag(long size, long modified) {
+		return "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+	}
+
+	/**
+	 * Creates entity tag of compressed variant of file. Variant has its own
+	 * tag because its bytes differ from file.
+	 * 
+	 * @param entityTag
+	 *            Entity tag of file.
+	 * @param encoding
+	 *            Content coding of variant.
+	 * @return Quoted entity tag of variant.
+	 */
+
+	public static String entityTag(String entityTag, String encoding) {
+		return entityTag.substring(0, entityTag.length() - 1) + "-" + encoding + "\"";
+	}
+
+	/**
+	 * Formats time as date used in header fields.
+	 * 
+	 * @param millis
+	 *            Time in milliseconds.
+	 * @return Formatted date.
+	 */
+
+	public static String formatDate(long millis) {
+		return httpDate.format(Instant.ofEpochMilli(millis));
+	}
+
+	/**
+	 * Parses date from header field.
+	 * 
+	 * @param date
+	 *            Date.
+	 * @return Time in milliseconds, or -1 if date is invalid.
+	 */
+
+	private static long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Creates header fields that validate file.
+	 * 
+	 * @param entityTag
+	 *            Entity tag of sent representation.
+	 * @param modified
+	 *            Time of last modification in milliseconds.
+	 * @return Header fields.
+	 */
+
+	public static String validatorFields(String entityTag, long modified) {
+		return String.format("ETag: %s\r\nLast-Modified: %s\r\nAccept-Ranges: bytes\r\n", entityTag,
+				formatDate(modified));
+	}
+
+	/**
+	 * Checks if client already has current file. If-None-Match is used if it
+	 * was sent, otherwise If-Modified-Since is used. Dates are compared in
+	 * whole seconds because header dates have no milliseconds.
+	 * 
+	 * @param entityTag
+	 *            Entity tag of file.
+	 * @param modified
+	 *            Time of last modification in milliseconds.
+	 * @return True if "304 Not Modified" is sent, false otherwise.
+	 */
+
+	public boolean isNotModified(String entityTag, long modified) {
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+
+				// Tags of compressed variants extend tag of file.
+				if (tag.equals("*") || tag.equals(entityTag)
+						|| tag.startsWith(entityTag.substring(0, entityTag.length() - 1) + "-")) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		if (ifModifiedSince != null) {
+			long since = parseDate(ifModifiedSince);
+			return since >= 0 && modified / 1000 <= since / 1000;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets byte range requested by client. Only single range is served, so
+	 * request for more ranges, invalid range or range whose If-Range
+	 * validator doesn't match file gets whole file.
+	 * 
+	 * @param entityTag
+	 *            Entity tag of file.
+	 * @param modified
+	 *            Time of last modification in milliseconds.
+	 * @param size
+	 *            Size of file in bytes.
+	 * @return Requested range, or null if whole file is sent.
+	 */
+
+	public ByteRange getRange(String entityTag, long modified, long size) {
+		if (range == null || !range.regionMatches(true, 0, "bytes=", 0, 6) || range.indexOf(',') >= 0) {
+			return null;
+		}
+
+		if (ifRange != null) {
+			String validator = ifRange.trim();
+			boolean isTag = validator.startsWith("\"") || validator.startsWith("W/");
+			if (isTag ? !validator.equals(entityTag) : parseDate(validator) / 1000 != modified / 1000) {
+				return null;
+			}
+		}
+
+		String spec = range.substring(6).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+
+		try {
+			if (dash == 0) {
+				long suffix = parsePosition(spec.substring(1));
+				if (suffix < 0) {
+					return null;
+				}
+				return suffix == 0 || size == 0 ? ByteRange.unsatisfiable
+						: new ByteRange(Math.max(0, size - suffix), size - 1);
+			}
+
+			boolean open = dash == spec.length() - 1;
+			long first = parsePosition(spec.substring(0, dash));
+			long last = open ? size - 1 : parsePosition(spec.substring(dash + 1));
+			if (first < 0 || (!open && last < first)) {
+				return null;
+			}
+
+			return first >= size ? ByteRange.unsatisfiable : new ByteRange(first, Math.min(last, size - 1));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses byte position from range, which has to be made only of digits.
+	 * 
+	 * @param text
+	 *            Text of position.
+	 * @return Position, or -1 if text isn't valid position.
+	 * @throws NumberFormatException
+	 *             If position is too large.
+	 */
+
+	private static long parsePosition(String text) throws NumberFormatException {
+		if (text.isEmpty()) {
+			return -1;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+				return -1;
+			}
+		}
+
+		return Long.parseLong(text);
+	}
+
+	/**
+	 * Range of bytes of file, both ends included.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static class ByteRange {
+		/**
+		 * Range that can't be served because it starts after end of file.
+		 */
+		public static final ByteRange unsatisfiable = new ByteRange(-1, -1);
+		/**
+		 * Index of first byte.
+		 */
+		private long first;
+		/**
+		 * Index of last byte.
+		 */
+		private long last;
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param first
+		 *            Index of first byte.
+		 * @param last
+		 *            Index of last byte.
+		 */
+
+		private ByteRange(long first, long last) {
+			this.first = first;
+			this.last = last;
+		}
+
+		/**
+		 * Checks if range can be served.
+		 * 
+		 * @return True if range is inside file, false otherwise.
+		 */
+
+		public boolean isSatisfiable() {
+			return this != unsatisfiable;
+		}
+
+		/**
+		 * Gets index of first byte.
+		 * 
+		 * @return Index of first byte.
+		 */
+
+		public long getFirst() {
+			return first;
+		}
+
+		/**
+		 * Gets number of bytes in range.
+		 * 
+		 * @return Length of range.
+		 */
+
+		public long getLength() {
+			return last - first + 1;
+		}
+
+		/**
+		 * Creates value of Content-Range field.
+		 * 
+		 * @param size
+		 *            Size of file in bytes.
+		 * @return Content range.
+		 */
+
+		public String contentRange(long size) {
+			return isSatisfiable() ? String.format("bytes %d-%d/%d", first, last, size) : "bytes */" + size;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of web workers that are called by name through "/ext/" paths.
+ * Worker class is loaded and instantiated only on first request for its name
+ * and its {@link WorkerPool} is used for every following request. Names that
+ * don't belong to any web worker are remembered too, so unknown names don't
+ * cause class loading on every request. Number of remembered unknown names is
+ * limited so clients can't fill memory with random names.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ExtWorkerRegistry {
+	/**
+	 * Package in which workers are looked up.
+	 */
+	private String packageName;
+	/**
+	 * Maximum number of idle instances kept for worker that isn't thread-safe.
+	 */
+	private int maxIdle;
+	/**
+	 * Maximum number of remembered unknown names.
+	 */
+	private int maxUnknown;
+	/**
+	 * Pools of resolved workers.
+	 */
+	private Map<String, WorkerPool> workers = new ConcurrentHashMap<>();
+	/**
+	 * Names that don't belong to any worker.
+	 */
+	private Set<String> unknown = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param packageName
+	 *            Package in which workers are looked up.
+	 * @param maxIdle
+	 *            Maximum number of idle instances kept for worker that isn't
+	 *            thread-safe.
+	 * @param maxUnknown
+	 *            Maximum number of remembered unknown names.
+	 * @throws IllegalArgumentException
+	 *             If package name is null.
+	 */
+
+	public ExtWorkerRegistry(String packageName, int maxIdle, int maxUnknown) throws IllegalArgumentException {
+		if (packageName == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.packageName = packageName;
+		this.maxIdle = maxIdle;
+		this.maxUnknown = maxUnknown;
+	}
+
+	/**
+	 * Gets pool of worker with given name.
+	 * 
+	 * @param name
+	 *            Simple name of worker class.
+	 * @return Pool of worker or null if there is no worker with given name.
+	 */
+
+	public WorkerPool get(String name) {
+		WorkerPool pool = workers.get(name);
+		if (pool != null || unknown.contains(name)) {
+			return pool;
+		}
+
+		pool = workers.computeIfAbsent(name, this::resolve);
+		if (pool == null && unknown.size() < maxUnknown) {
+			unknown.add(name);
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Loads and instantiates worker with given name.
+	 * 
+	 * @param name
+	 *            Simple name of worker class.
+	 * @return Pool of worker or null if worker couldn't be created.
+	 */
+
+	private WorkerPool resolve(String name) {
+		if (!isIdentifier(name)) {
+			return null;
+		}
+
+		try {
+			Class<?> referenceToClass = getClass().getClassLoader().loadClass(packageName + "." + name);
+			if (!IWebWorker.class.isAssignableFrom(referenceToClass)
+					|| Modifier.isAbstract(referenceToClass.getModifiers())) {
+				return null;
+			}
+
+			// Exception thrown by constructor is wrapped, so failing worker is remembered as unknown.
+			return new WorkerPool((IWebWorker) referenceToClass.getConstructor().newInstance(), maxIdle);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if given name is valid simple name of Java class.
+	 * 
+	 * @param name
+	 *            Name.
+	 * @return True if name is valid, false otherwise.
+	 */
+
+	private static boolean isIdentifier(String name) {
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,465 @@
+package hr.fer.zemris.java.webserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Incremental parser of HTTP request header. Bytes are given to parser as
+ * they arrive and are copied into its reusable header buffer, where every line
+ * is processed as soon as its end is found. Request line is split into method,
+ * target and version, and only values of header fields that server uses
+ * (Host, Cookie, Connection, Accept-Encoding and conditional and range
+ * fields) are decoded, so no regular expressions or line lists are needed.
+ * Size of header and number of header fields are limited. Bytes that follow
+ * header belong to next request and are left in given buffer.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class HttpRequestParser {
+	/**
+	 * Initial size of header buffer. Most headers fit in it, so larger buffer
+	 * is allocated only for connections that send larger headers.
+	 */
+	private static final int initialHeaderSize = 2048;
+	/**
+	 * Bytes of header read so far. Buffer grows up to maximum header size.
+	 */
+	private byte[] header;
+	/**
+	 * Maximum size of header in bytes.
+	 */
+	private int maxHeaderSize;
+	/**
+	 * Maximum number of header fields.
+	 */
+	private int maxHeaderCount;
+	/**
+	 * Number of bytes in header buffer.
+	 */
+	private int length;
+	/**
+	 * Index where current line starts.
+	 */
+	private int lineStart;
+	/**
+	 * Number of header fields read so far.
+	 */
+	private int headerCount;
+	/**
+	 * Flag that tells if whole header was read.
+	 */
+	private boolean complete;
+	/**
+	 * Flag that tells if header exceeded size or field count limit.
+	 */
+	private boolean tooLarge;
+	/**
+	 * Request line.
+	 */
+	private String requestLine;
+	/**
+	 * Request method, or null if request line is invalid.
+	 */
+	private String method;
+	/**
+	 * Request target, or null if request line is invalid.
+	 */
+	private String target;
+	/**
+	 * Protocol version, or null if request line is invalid.
+	 */
+	private String version;
+	/**
+	 * Value of Host field.
+	 */
+	private String host;
+	/**
+	 * Value of Cookie fields.
+	 */
+	private String cookie;
+	/**
+	 * Value of Connection field.
+	 */
+	private String connection;
+	/**
+	 * Value of Accept-Encoding field.
+	 */
+	private String acceptEncoding;
+	/**
+	 * Value of If-None-Match field.
+	 */
+	private String ifNoneMatch;
+	/**
+	 * Value of If-Modified-Since field.
+	 */
+	private String ifModifiedSince;
+	/**
+	 * Value of Range field.
+	 */
+	private String range;
+	/**
+	 * Value of If-Range field.
+	 */
+	private String ifRange;
+
+	/**
+	 * Constructor that sets header limits.
+	 * 
+	 * @param maxHeaderSize
+	 *            Maximum size of header in bytes.
+	 * @param maxHeaderCount
+	 *            Maximum number of header fields.
+	 * @throws IllegalArgumentException
+	 *             If maximum header size isn't positive.
+	 */
+
+	public HttpRequestParser(int maxHeaderSize, int maxHeaderCount) throws IllegalArgumentException {
+		if (maxHeaderSize < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		header = new byte[Math.min(initialHeaderSize, maxHeaderSize)];
+		this.maxHeaderSize = maxHeaderSize;
+		this.maxHeaderCount = maxHeaderCount;
+	}
+
+	/**
+	 * Parses bytes between position and limit of given buffer. Parser stops
+	 * after empty line that ends header, bytes after it stay in buffer.
+	 * 
+	 * @param buffer
+	 *            Buffer with received bytes.
+	 * @return True if parsing is done because whole header was read or it
+	 *         was too large, false if more bytes are needed.
+	 */
+
+	public boolean parse(ByteBuffer buffer) {
+		while (!complete && buffer.hasRemaining()) {
+			if (length == maxHeaderSize) {
+				tooLarge = true;
+				complete = true;
+				break;
+			}
+			if (length == header.length) {
+				header = Arrays.copyOf(header, (int) Math.min(2L * header.length, maxHeaderSize));
+			}
+
+			int start = length;
+			int count = Math.min(buffer.remaining(), header.length - length);
+			buffer.get(header, length, count);
+			length += count;
+
+			for (int i = start; i < length; i++) {
+				if (header[i] != '\n') {
+					continue;
+				}
+
+				int end = i > lineStart && header[i - 1] == '\r' ? i - 1 : i;
+				boolean last = processLine(lineStart, end);
+				lineStart = i + 1;
+				if (last || tooLarge) {
+					// Returns bytes of next request to buffer.
+					buffer.position(buffer.position() - (length - lineStart));
+					length = lineStart;
+					complete = true;
+					break;
+				}
+			}
+		}
+
+		return complete;
+	}
+
+	/**
+	 * Clears parser so it can parse next request.
+	 */
+
+	public void reset() {
+		length = 0;
+		lineStart = 0;
+		headerCount = 0;
+		complete = false;
+		tooLarge = false;
+		requestLine = null;
+		method = null;
+		target = null;
+		version = null;
+		host = null;
+		cookie = null;
+		connection = null;
+		acceptEncoding = null;
+		ifNoneMatch = null;
+		ifModifiedSince = null;
+		range = null;
+		ifRange = null;
+	}
+
+	/**
+	 * Processes single line of header.
+	 * 
+	 * @param start
+	 *            Index of first byte of line.
+	 * @param end
+	 *            Index after last byte of line, without line terminator.
+	 * @return True if line ends header, false otherwise.
+	 */
+
+	private boolean processLine(int start, int end) {
+		if (start == end) {
+			// Empty lines before request line are ignored.
+			return requestLine != null;
+		}
+
+		if (requestLine == null) {
+			parseRequestLine(new String(header, start, end - start, StandardCharsets.UTF_8));
+			return false;
+		}
+
+		if (++headerCount > maxHeaderCount) {
+			tooLarge = true;
+			return false;
+		}
+
+		int colon = start;
+		while (colon < end && header[colon] != ':') {
+			colon++;
+		}
+		if (colon == end) {
+			return false;
+		}
+
+		if (nameEquals(start, colon, "host")) {
+			host = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "cookie")) {
+			String value = value(colon + 1, end);
+			cookie = cookie == null ? value : cookie + "; " + value;
+		} else if (nameEquals(start, colon, "connection")) {
+			connection = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "accept-encoding")) {
+			acceptEncoding = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "if-none-match")) {
+			ifNoneMatch = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "if-modified-since")) {
+			ifModifiedSince = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "range")) {
+			range = value(colon + 1, end);
+		} else if (nameEquals(start, colon, "if-range")) {
+			ifRange = value(colon + 1, end);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Splits request line into method, target and version. If line doesn't
+	 * have exactly three parts they are left null.
+	 * 
+	 * @param line
+	 *            Request line.
+	 */
+
+	private void parseRequestLine(String line) {
+		requestLine = line;
+
+		int first = line.indexOf(' ');
+		int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+		if (first < 1 || second < first + 2 || second == line.length() - 1 || line.indexOf(' ', second + 1) >= 0) {
+			return;
+		}
+
+		method = line.substring(0, first);
+		target = line.substring(first + 1, second);
+		version = line.substring(second + 1);
+	}
+
+	/**
+	 * Checks if field name equals given lowercase name, ignoring case.
+	 * 
+	 * @param start
+	 *            Index of first byte of field name.
+	 * @param end
+	 *            Index after last byte of field name.
+	 * @param name
+	 *            Lowercase name.
+	 * @return True if names are equal, false otherwise.
+	 */
+
+	private boolean nameEquals(int start, int end, String name) {
+		if (end - start != name.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+			// Sets bit that makes ASCII letter lowercase.
+			if ((header[start + i] | 0x20) != name.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Decodes field value without surrounding whitespace.
+	 * 
+	 * @param start
+	 *            Index of first byte of value.
+	 * @param end
+	 *            Index after last byte of value.
+	 * @return Field value.
+	 */
+
+	private String value(int start, int end) {
+		while (start < end && (header[start] == ' ' || header[start] == '\t')) {
+			start++;
+		}
+		while (end > start && (header[end - 1] == ' ' || header[end - 1] == '\t')) {
+			end--;
+		}
+
+		return new String(header, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Checks if header exceeded size or field count limit.
+	 * 
+	 * @return True if header is too large, false otherwise.
+	 */
+
+	public boolean isTooLarge() {
+		return tooLarge;
+	}
+
+	/**
+	 * Gets request line.
+	 * 
+	 * @return Request line, or null if it wasn't read.
+	 */
+
+	public String getRequestLine() {
+		return requestLine;
+	}
+
+	/**
+	 * Gets request method.
+	 * 
+	 * @return Method, or null if request line is invalid.
+	 */
+
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Gets request target with query string.
+	 * 
+	 * @return Target, or null if request line is invalid.
+	 */
+
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * Gets protocol version.
+	 * 
+	 * @return Version, or null if request line is invalid.
+	 */
+
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets value of Host field.
+	 * 
+	 * @return Host, or null if it wasn't sent.
+	 */
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Gets value of Cookie fields joined with "; ".
+	 * 
+	 * @return Cookies, or null if they weren't sent.
+	 */
+
+	public String getCookie() {
+		return cookie;
+	}
+
+	/**
+	 * Gets value of Connection field.
+	 * 
+	 * @return Connection, or null if it wasn't sent.
+	 */
+
+	public String getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Gets value of Accept-Encoding field.
+	 * 
+	 * @return Accepted content codings, or null if they weren't sent.
+	 */
+
+	public String getAcceptEncoding() {
+		return acceptEncoding;
+	}
+
+	/**
+	 * Gets value of If-None-Match field.
+	 * 
+	 * @return Entity tags of client's cached copies, or null if it wasn't sent.
+	 */
+
+	public String getIfNoneMatch() {
+		return ifNoneMatch;
+	}
+
+	/**
+	 * Gets value of If-Modified-Since field.
+	 * 
+	 * @return Date of client's cached copy, or null if it wasn't sent.
+	 */
+
+	public String getIfModifiedSince() {
+		return ifModifiedSince;
+	}
+
+	/**
+	 * Gets value of Range field.
+	 * 
+	 * @return Requested byte ranges, or null if it wasn't sent.
+	 */
+
+	public String getRange() {
+		return range;
+	}
+
+	/**
+	 * Gets value of If-Range field.
+	 * 
+	 * @return Validator of partial copy, or null if it wasn't sent.
+	 */
+
+	public String getIfRange() {
+		return ifRange;
+	}
+
+	/**
+	 * Decodes whole header that was read. Used only for logging.
+	 * 
+	 * @return Header text.
+	 */
+
+	public String getHeaderText() {
+		return new String(header, 0, length, StandardCharsets.UTF_8);
+	}
+}
@@ -1,7 +1,10 @@
 package hr.fer.zemris.java.webserver;
 
 /**
- * Web worker that processes request.
+ * Web worker that processes request. Single instance of worker marked with
+ * {@link ThreadSafe} is called by many client workers at once, so it must not
+ * keep state of request in its fields. Worker without that annotation is
+ * called by one thread at a time and server keeps pool of its instances.
  * 
  * @author Mihael Jaić
  *
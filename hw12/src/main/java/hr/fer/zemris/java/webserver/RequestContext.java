@@ -1,9 +1,16 @@
 package hr.fer.zemris.java.webserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,17 +18,32 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 /**
  * Context that is sent to client by using methods write. Holds information
  * about current parameters, mime type, etc. When any of write methods is first
- * time called header is generated for client's browser.
+ * time called header is generated for client's browser. Written body is
+ * collected in buffer and sent only when buffer is full or when response is
+ * finished, so response whose body fits in buffer is sent with its length and
+ * in single write. Body that doesn't fit is sent in chunks if connection stays
+ * open. If client accepts compressed content and body is compressible, body is
+ * compressed while it is sent.
  * 
  * @author Mihael Jaić
  *
  */
 
 public class RequestContext {
+	/**
+	 * Encoding used if it isn't set.
+	 */
+	public static final String defaultEncoding = "UTF-8";
+	/**
+	 * Size of body buffer used if it isn't set.
+	 */
+	public static final int defaultBufferSize = 8192;
 	/**
 	 * Output stream.
 	 */
@@ -33,7 +55,7 @@ public class RequestContext {
 	/**
 	 * Encoding.
 	 */
-	private String encoding = "UTF-8";
+	private String encoding = defaultEncoding;
 	/**
 	 * Status code.
 	 */
@@ -74,6 +96,127 @@ public class RequestContext {
 	 * Flag that marks if logs have to printed on standard output.
 	 */
 	private boolean writeLogs;
+	/**
+	 * Log to which response header is written, or null.
+	 */
+	private AccessLog accessLog;
+	/**
+	 * Flag that marks if connection stays open after response.
+	 */
+	private boolean keepAlive;
+	/**
+	 * Length of response body, or -1 if it isn't known in advance.
+	 */
+	private long contentLength = -1;
+	/**
+	 * Flag that marks if response body is sent in chunks.
+	 */
+	private boolean chunked;
+	/**
+	 * Number of body bytes sent to client, after compression.
+	 */
+	private long bytesWritten;
+	/**
+	 * Number of body bytes written before compression, used by gzip trailer.
+	 */
+	private long uncompressedBytes;
+	/**
+	 * Prepared header fields that describe body, or null if they are
+	 * generated from mime type and content length.
+	 */
+	private String preparedFields;
+	/**
+	 * Channel of client's socket used for zero-copy transfer of files, or null
+	 * if socket has no channel.
+	 */
+	private WritableByteChannel channel;
+	/**
+	 * Size of buffer used when file is copied instead of transferred.
+	 */
+	private static final int fileBufferSize = 8192;
+	/**
+	 * Line terminator used in chunked encoding.
+	 */
+	private static final byte[] crlf = { '\r', '\n' };
+	/**
+	 * Space reserved in front of buffered body for chunk size line.
+	 */
+	private static final int chunkHeadroom = 10;
+	/**
+	 * Flag that marks if header was sent to client.
+	 */
+	private boolean headerSent;
+	/**
+	 * Size of body buffer.
+	 */
+	private int bufferSize = defaultBufferSize;
+	/**
+	 * Buffer with body bytes that weren't sent yet. Body starts after space
+	 * reserved for chunk size line and space for line terminator is left after
+	 * it.
+	 */
+	private byte[] buffer;
+	/**
+	 * Number of body bytes in buffer.
+	 */
+	private int buffered;
+	/**
+	 * Settings of response compression, or null if responses aren't
+	 * compressed.
+	 */
+	private ResponseCompression compression;
+	/**
+	 * Content coding accepted by client, or null if client doesn't accept
+	 * compressed content.
+	 */
+	private String contentEncoding;
+	/**
+	 * Deflater that compresses body, or null if body isn't compressed.
+	 */
+	private Deflater deflater;
+	/**
+	 * Checksum of uncompressed body, used only by gzip coding.
+	 */
+	private CRC32 crc;
+	/**
+	 * Buffer with compressed bytes that weren't sent yet, laid out same as
+	 * body buffer.
+	 */
+	private byte[] compressed;
+	/**
+	 * Number of compressed bytes in buffer.
+	 */
+	private int compressedCount;
+	/**
+	 * Additional header fields, each terminated by line terminator.
+	 */
+	private StringBuilder headerFields = new StringBuilder();
+	/**
+	 * Status code of responses that have no body.
+	 */
+	private static final int notModified = 304;
+	/**
+	 * Minimum size of compressed buffer, so gzip header and trailer fit in
+	 * it.
+	 */
+	private static final int minCompressedBufferSize = 64;
+	/**
+	 * Time in seconds for which output can be cached, or 0 if it can't be
+	 * cached.
+	 */
+	private int cacheTtl;
+	/**
+	 * Flag that marks if persistent parameters were used.
+	 */
+	private boolean persistentParametersUsed;
+	/**
+	 * Copy of written body, or null if body isn't collected.
+	 */
+	private ByteArrayOutputStream capturedBody;
+	/**
+	 * Maximum number of collected body bytes.
+	 */
+	private int maxCapturedBytes;
 
 	/**
 	 * Constructor that gets most attributes.
@@ -186,6 +329,16 @@ public class RequestContext {
 		this.statusCode = statusCode;
 	}
 
+	/**
+	 * Gets status code.
+	 * 
+	 * @return Status code.
+	 */
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
 	/**
 	 * Sets status text.
 	 * 
@@ -305,6 +458,7 @@ public class RequestContext {
 	 */
 
 	public String getPersistentParameter(String name) {
+		persistentParametersUsed = true;
 		return persistentParameters.get(name);
 	}
 
@@ -315,6 +469,7 @@ public class RequestContext {
 	 */
 
 	public Set<String> getPersistentParameterNames() {
+		persistentParametersUsed = true;
 		return extractKeys(persistentParameters);
 	}
 
@@ -334,6 +489,7 @@ public class RequestContext {
 			throw new IllegalArgumentException();
 		}
 
+		persistentParametersUsed = true;
 		persistentParameters.put(name, value);
 	}
 
@@ -345,6 +501,7 @@ public class RequestContext {
 	 */
 
 	public void removePersistentParameter(String name) {
+		persistentParametersUsed = true;
 		persistentParameters.remove(name);
 	}
 
@@ -413,12 +570,57 @@ public class RequestContext {
 	 */
 
 	public RequestContext write(byte[] data) throws IOException {
+		return write(data, 0, data.length);
+	}
+
+	/**
+	 * Writes part of given data to output stream. If this is first time any of
+	 * write methods is called header is generated. Data is buffered and data
+	 * larger than buffer is written directly.
+	 * 
+	 * @param data
+	 *            Data.
+	 * @param offset
+	 *            Offset of first written byte.
+	 * @param length
+	 *            Number of written bytes.
+	 * @return This context.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public RequestContext write(byte[] data, int offset, int length) throws IOException {
 		if (!headerGenerated) {
-			outputStream.write(createHeader());
+			generateHeader();
+		}
+
+		if (buffer == null) {
+			buffer = new byte[chunkHeadroom + bufferSize + crlf.length];
+		}
+
+		uncompressedBytes += length;
+		if (capturedBody != null) {
+			if (capturedBody.size() + length > maxCapturedBytes) {
+				capturedBody = null;
+			} else {
+				capturedBody.write(data, offset, length);
+			}
+		}
+
+		if (length >= bufferSize || length > bufferSize - buffered) {
+			// Header and buffered body have to be sent before body written directly.
+			flushBuffer(false);
+		}
+
+		if (length >= bufferSize && deflater != null) {
+			compress(data, offset, length, false);
+		} else if (length >= bufferSize) {
+			writeBody(data, offset, length);
+		} else {
+			System.arraycopy(data, offset, buffer, chunkHeadroom + buffered, length);
+			buffered += length;
 		}
 
-		outputStream.write(data);
-		outputStream.flush();
 		return this;
 	}
 
@@ -435,14 +637,359 @@ public class RequestContext {
 
 	public RequestContext write(String text) throws IOException {
 		if (!headerGenerated) {
+			generateHeader();
+		}
+
+		return write(text.getBytes(charset));
+	}
+
+	/**
+	 * Writes text that was already encoded. Encoded text is written if it was
+	 * encoded in charset of response, otherwise text is encoded again. If
+	 * this is first time any of write methods is called header is generated.
+	 * 
+	 * @param text
+	 *            Text.
+	 * @param encoded
+	 *            Text encoded in given charset.
+	 * @param encodedCharset
+	 *            Charset in which text was encoded.
+	 * @return This context.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public RequestContext write(String text, byte[] encoded, Charset encodedCharset) throws IOException {
+		if (!headerGenerated) {
+			generateHeader();
+		}
+
+		return write(charset.equals(encodedCharset) ? encoded : text.getBytes(charset));
+	}
+
+	/**
+	 * Writes prepared body together with header fields that describe it. Header
+	 * fields have to be created by
+	 * {@link #contentHeaderFields(String, String, long)}. If header was already
+	 * generated only body is written.
+	 * 
+	 * @param headerFields
+	 *            Header fields that describe body.
+	 * @param body
+	 *            Body.
+	 * @return This context.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public RequestContext writePrepared(String headerFields, byte[] body) throws IOException {
+		if (!headerGenerated) {
+			preparedFields = headerFields;
+			contentLength = body.length;
+		}
+
+		return write(body);
+	}
+
+	/**
+	 * Writes content of given file as response body. If header wasn't
+	 * generated yet, file size is sent as content length and file is
+	 * transferred directly from file system to socket channel (if it was set)
+	 * without copying it through heap. Otherwise file is streamed through
+	 * small buffer so memory used doesn't depend on file size.
+	 * 
+	 * @param file
+	 *            Path to file.
+	 * @return This context.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public RequestContext writeFile(Path file) throws IOException {
+		return writeFile(file, 0, -1);
+	}
+
+	/**
+	 * Writes part of given file as response body, same as
+	 * {@link #writeFile(Path)}.
+	 * 
+	 * @param file
+	 *            Path to file.
+	 * @param offset
+	 *            Index of first written byte of file.
+	 * @param length
+	 *            Number of written bytes, or -1 if file is written to its
+	 *            end.
+	 * @return This context.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public RequestContext writeFile(Path file, long offset, long length) throws IOException {
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long end = length < 0 ? fileChannel.size() : Math.min(offset + length, fileChannel.size());
+			if (headerGenerated) {
+				ByteBuffer buffer = ByteBuffer.allocate(fileBufferSize);
+				fileChannel.position(offset);
+				for (long position = offset; position < end; position += buffer.position()) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - position));
+					if (fileChannel.read(buffer) <= 0) {
+						break;
+					}
+					write(buffer.array(), 0, buffer.position());
+				}
+				return this;
+			}
+
+			contentLength = end - offset;
+			capturedBody = null;
+			generateHeader();
 			outputStream.write(createHeader());
+			outputStream.flush();
+
+			WritableByteChannel target = channel == null ? Channels.newChannel(outputStream) : channel;
+			long position = offset;
+			while (position < end) {
+				long transferred = fileChannel.transferTo(position, end - position, target);
+				if (transferred <= 0) {
+					throw new IOException("Couldn't transfer file: " + file);
+				}
+				position += transferred;
+			}
+			bytesWritten += end - offset;
 		}
 
-		outputStream.write(text.getBytes(charset));
-		outputStream.flush();
 		return this;
 	}
 
+	/**
+	 * Finishes response by sending buffered body. If length of body wasn't
+	 * known and header wasn't sent yet, length of buffered body is sent as
+	 * content length. If body was sent in chunks terminating chunk is written.
+	 * 
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	public void finish() throws IOException {
+		if (!headerGenerated) {
+			generateHeader();
+		}
+
+		flushBuffer(true);
+		if (chunked) {
+			outputStream.write(new byte[] { '0', '\r', '\n', '\r', '\n' });
+			chunked = false;
+		}
+
+		outputStream.flush();
+	}
+
+	/**
+	 * Generates header, after which its properties can't be changed. Header
+	 * is sent together with first part of body.
+	 */
+
+	private void generateHeader() {
+		charset = Charset.forName(encoding);
+		headerGenerated = true;
+	}
+
+	/**
+	 * Sends buffered body. Header is sent together with it if it wasn't sent
+	 * yet.
+	 * 
+	 * @param last
+	 *            True if no more body will be written.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	private void flushBuffer(boolean last) throws IOException {
+		if (!headerSent && deflater == null && isCompressed(last)) {
+			startCompression();
+		}
+
+		if (deflater != null) {
+			compress(buffer, chunkHeadroom, buffered, last);
+		} else if (!headerSent || buffered > 0) {
+			send(buffer, buffered, last);
+		}
+		buffered = 0;
+	}
+
+	/**
+	 * Sends bytes from given buffer, together with header if it wasn't sent
+	 * yet. Bytes start after space reserved for chunk size line.
+	 * 
+	 * @param data
+	 *            Buffer laid out same as body buffer.
+	 * @param count
+	 *            Number of bytes in buffer.
+	 * @param last
+	 *            True if these are last bytes of body.
+	 * @throws IOException
+	 *             If bytes couldn't be sent.
+	 */
+
+	private void send(byte[] data, int count, boolean last) throws IOException {
+		int start = chunkHeadroom;
+		int end = chunkHeadroom + count;
+		byte[] header = null;
+		if (!headerSent) {
+			if (last && contentLength < 0) {
+				// Whole body is in buffer, so its length is known.
+				contentLength = count;
+			}
+			header = createHeader();
+		}
+
+		if (chunked && count > 0) {
+			byte[] size = Integer.toHexString(count).getBytes(StandardCharsets.ISO_8859_1);
+			start -= size.length + crlf.length;
+			System.arraycopy(size, 0, data, start, size.length);
+			System.arraycopy(crlf, 0, data, start + size.length, crlf.length);
+			System.arraycopy(crlf, 0, data, end, crlf.length);
+			end += crlf.length;
+		} else if (chunked) {
+			// Empty chunk would terminate response.
+			start = end;
+		}
+
+		bytesWritten += count;
+		if (header == null) {
+			outputStream.write(data, start, end - start);
+		} else {
+			byte[] message = new byte[header.length + end - start];
+			System.arraycopy(header, 0, message, 0, header.length);
+			if (end > start) {
+				System.arraycopy(data, start, message, header.length, end - start);
+			}
+			outputStream.write(message);
+		}
+	}
+
+	/**
+	 * Checks if body is compressed. Body is compressed if client accepts
+	 * compressed content, its length isn't set in advance and it is
+	 * compressible. When buffer is flushed before body is finished, body is
+	 * at least as large as buffer, so it is compared only by mime type.
+	 * 
+	 * @param last
+	 *            True if whole body is in buffer.
+	 * @return True if body is compressed, false otherwise.
+	 */
+
+	private boolean isCompressed(boolean last) {
+		return compression != null && contentEncoding != null && preparedFields == null && contentLength < 0
+				&& compression.isCompressible(mimeType, last ? buffered : Long.MAX_VALUE);
+	}
+
+	/**
+	 * Takes deflater and prepares compressed buffer. Gzip header is put at
+	 * start of buffer.
+	 */
+
+	private void startCompression() {
+		deflater = compression.acquire(contentEncoding);
+		if (compressed == null) {
+			compressed = new byte[chunkHeadroom + Math.max(bufferSize, minCompressedBufferSize) + crlf.length];
+		}
+
+		compressedCount = 0;
+		if (contentEncoding.equals(ResponseCompression.gzip)) {
+			crc = new CRC32();
+			byte[] gzipHeader = ResponseCompression.gzipHeader();
+			System.arraycopy(gzipHeader, 0, compressed, chunkHeadroom, gzipHeader.length);
+			compressedCount = gzipHeader.length;
+		}
+	}
+
+	/**
+	 * Compresses given body bytes and sends compressed bytes whenever
+	 * compressed buffer is full. After last bytes deflater is finished, gzip
+	 * trailer is added and deflater is returned for reuse.
+	 * 
+	 * @param data
+	 *            Body bytes.
+	 * @param offset
+	 *            Offset of first byte.
+	 * @param length
+	 *            Number of bytes.
+	 * @param last
+	 *            True if these are last bytes of body.
+	 * @throws IOException
+	 *             If compressed bytes couldn't be sent.
+	 */
+
+	private void compress(byte[] data, int offset, int length, boolean last) throws IOException {
+		int capacity = compressed.length - chunkHeadroom - crlf.length;
+		if (length > 0) {
+			deflater.setInput(data, offset, length);
+			if (crc != null) {
+				crc.update(data, offset, length);
+			}
+		}
+		if (last) {
+			deflater.finish();
+		}
+
+		while (last ? !deflater.finished() : !deflater.needsInput()) {
+			compressedCount += deflater.deflate(compressed, chunkHeadroom + compressedCount,
+					capacity - compressedCount);
+			if (compressedCount == capacity) {
+				send(compressed, compressedCount, false);
+				compressedCount = 0;
+			}
+		}
+
+		if (!last) {
+			return;
+		}
+
+		if (crc != null) {
+			if (capacity - compressedCount < 8) {
+				send(compressed, compressedCount, false);
+				compressedCount = 0;
+			}
+			ResponseCompression.writeGzipTrailer(compressed, chunkHeadroom + compressedCount, crc.getValue(),
+					uncompressedBytes);
+			compressedCount += 8;
+		}
+
+		send(compressed, compressedCount, true);
+		compressedCount = 0;
+		compression.release(contentEncoding, deflater);
+		deflater = null;
+	}
+
+	/**
+	 * Writes body directly to output stream, as single chunk if body is sent
+	 * in chunks.
+	 * 
+	 * @param data
+	 *            Data.
+	 * @param offset
+	 *            Offset of first written byte.
+	 * @param length
+	 *            Number of written bytes.
+	 * @throws IOException
+	 *             If I/O error occurred.
+	 */
+
+	private void writeBody(byte[] data, int offset, int length) throws IOException {
+		bytesWritten += length;
+		if (chunked) {
+			outputStream.write(Integer.toHexString(length).getBytes(StandardCharsets.ISO_8859_1));
+			outputStream.write(crlf);
+			outputStream.write(data, offset, length);
+			outputStream.write(crlf);
+		} else {
+			outputStream.write(data, offset, length);
+		}
+	}
+
 	/**
 	 * Creates header that is sent to client's browser.
 	 * 
@@ -450,11 +997,20 @@ public class RequestContext {
 	 */
 
 	private byte[] createHeader() {
-		charset = Charset.forName(encoding);
-
 		StringBuilder sb = new StringBuilder(String.format("HTTP/1.1 %s %s\r\n", statusCode, statusText));
-		sb.append(String.format("Content-Type: %s%s\r\n", mimeType,
-				mimeType.startsWith("text/") ? ("; charset=" + encoding) : ""));
+		if (preparedFields != null) {
+			sb.append(preparedFields);
+		} else if (statusCode != notModified) {
+			sb.append(contentHeaderFields(mimeType, encoding, contentLength));
+		}
+		sb.append(headerFields);
+		if (deflater != null) {
+			sb.append(String.format("Content-Encoding: %s\r\n", contentEncoding));
+		}
+		if (preparedFields == null && compression != null && compression.isCompressible(mimeType)) {
+			// Body depends on client's Accept-Encoding field.
+			sb.append("Vary: Accept-Encoding\r\n");
+		}
 		for (RCCookie cookie : outputCookies) {
 			String domain = cookie.domain == null ? "" : String.format("; Domain=%s", cookie.domain);
 			String path = cookie.path == null ? "" : String.format("; Path=%s", cookie.path);
@@ -463,15 +1019,170 @@ public class RequestContext {
 					path, maxAge));
 		}
 
-		if (writeLogs) {
+		if (contentLength < 0 && keepAlive) {
+			// Length isn't known so client finds end of body from chunks.
+			chunked = true;
+			sb.append("Transfer-Encoding: chunked\r\n");
+		}
+		sb.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+
+		if (accessLog != null && accessLog.isEnabled(AccessLog.Level.DEBUG)) {
+			accessLog.log(AccessLog.Level.DEBUG, "Sending response with header:" + System.lineSeparator() + sb);
+		} else if (writeLogs) {
 			System.out.printf("Sending response with header:%n%s%n", sb.toString());
 		}
 		sb.append("\r\n");
-		headerGenerated = true;
+		headerSent = true;
 
 		return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
 	}
 
+	/**
+	 * Creates header fields that describe content type and length of body.
+	 * 
+	 * @param mimeType
+	 *            Mime type.
+	 * @param encoding
+	 *            Encoding of text content.
+	 * @param contentLength
+	 *            Length of body, or negative number if it isn't known.
+	 * @return Header fields.
+	 */
+
+	public static String contentHeaderFields(String mimeType, String encoding, long contentLength) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Content-Type: %s%s\r\n", mimeType,
+				mimeType.startsWith("text/") ? ("; charset=" + encoding) : ""));
+		if (contentLength >= 0) {
+			sb.append(String.format("Content-Length: %d\r\n", contentLength));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Sets if connection stays open after response. If length of body isn't
+	 * known it is then sent in chunks.
+	 * 
+	 * @param keepAlive
+	 *            If connection stays open after response.
+	 * @throws RuntimeException
+	 *             If header was already generated.
+	 */
+
+	public void setKeepAlive(boolean keepAlive) throws RuntimeException {
+		if (headerGenerated) {
+			throw new RuntimeException("Header was already generated, can't change it's properties!");
+		}
+
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Sets length of response body in bytes.
+	 * 
+	 * @param contentLength
+	 *            Length of response body.
+	 * @throws IllegalArgumentException
+	 *             If length is negative.
+	 * @throws RuntimeException
+	 *             If header was already generated.
+	 */
+
+	public void setContentLength(long contentLength) throws IllegalArgumentException, RuntimeException {
+		if (contentLength < 0) {
+			throw new IllegalArgumentException();
+		}
+
+		if (headerGenerated) {
+			throw new RuntimeException("Header was already generated, can't change it's properties!");
+		}
+
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * Sets size of buffer in which body is collected before it is sent.
+	 * 
+	 * @param bufferSize
+	 *            Size of buffer in bytes.
+	 * @throws IllegalArgumentException
+	 *             If size isn't positive.
+	 * @throws RuntimeException
+	 *             If header was already generated.
+	 */
+
+	public void setBufferSize(int bufferSize) throws IllegalArgumentException, RuntimeException {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		if (headerGenerated) {
+			throw new RuntimeException("Header was already generated, can't change it's properties!");
+		}
+
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Adds header field to response.
+	 * 
+	 * @param name
+	 *            Field name.
+	 * @param value
+	 *            Field value.
+	 * @throws IllegalArgumentException
+	 *             If name or value are null.
+	 * @throws RuntimeException
+	 *             If header was already generated.
+	 */
+
+	public void addHeaderField(String name, String value) throws IllegalArgumentException, RuntimeException {
+		if (name == null || value == null) {
+			throw new IllegalArgumentException();
+		}
+
+		if (headerGenerated) {
+			throw new RuntimeException("Header was already generated, can't change it's properties!");
+		}
+
+		headerFields.append(name).append(": ").append(value).append("\r\n");
+	}
+
+	/**
+	 * Sets compression of response body.
+	 * 
+	 * @param compression
+	 *            Settings of response compression, or null if body isn't
+	 *            compressed.
+	 * @param contentEncoding
+	 *            Content coding accepted by client, or null if client doesn't
+	 *            accept compressed content.
+	 * @throws RuntimeException
+	 *             If header was already generated.
+	 */
+
+	public void setCompression(ResponseCompression compression, String contentEncoding) throws RuntimeException {
+		if (headerGenerated) {
+			throw new RuntimeException("Header was already generated, can't change it's properties!");
+		}
+
+		this.compression = compression;
+		this.contentEncoding = contentEncoding;
+	}
+
+	/**
+	 * Sets channel of client's socket that is used for zero-copy transfer of
+	 * files. Channel has to write to same destination as output stream.
+	 * 
+	 * @param channel
+	 *            Socket channel.
+	 */
+
+	public void setChannel(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
 	/**
 	 * Sets if response's will be written on standard output.
 	 * 
@@ -483,6 +1194,111 @@ public class RequestContext {
 		this.writeLogs = writeLogs;
 	}
 
+	/**
+	 * Sets log to which response header is written at debug level instead of
+	 * standard output.
+	 * 
+	 * @param accessLog
+	 *            Access log.
+	 */
+
+	public void setAccessLog(AccessLog accessLog) {
+		this.accessLog = accessLog;
+	}
+
+	/**
+	 * Checks if header was already generated.
+	 * 
+	 * @return True if header was generated, false otherwise.
+	 */
+
+	public boolean isHeaderGenerated() {
+		return headerGenerated;
+	}
+
+	/**
+	 * Gets number of body bytes sent to client so far. Compressed body is
+	 * counted after compression, as it was sent.
+	 * 
+	 * @return Number of body bytes sent.
+	 */
+
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Gets mime type.
+	 * 
+	 * @return Mime type.
+	 */
+
+	public String getMimeType() {
+		return mimeType;
+	}
+
+	/**
+	 * Sets for how many seconds output can be cached.
+	 * 
+	 * @param cacheTtl
+	 *            Time in seconds, or 0 if output can't be cached.
+	 * @throws IllegalArgumentException
+	 *             If time is negative.
+	 */
+
+	public void setCacheTtl(int cacheTtl) throws IllegalArgumentException {
+		if (cacheTtl < 0) {
+			throw new IllegalArgumentException();
+		}
+
+		this.cacheTtl = cacheTtl;
+	}
+
+	/**
+	 * Gets for how many seconds output can be cached.
+	 * 
+	 * @return Time in seconds, or 0 if output can't be cached.
+	 */
+
+	public int getCacheTtl() {
+		return cacheTtl;
+	}
+
+	/**
+	 * Checks if persistent parameters were read or changed, in which case
+	 * output depends on session.
+	 * 
+	 * @return True if persistent parameters were used, false otherwise.
+	 */
+
+	public boolean isPersistentParametersUsed() {
+		return persistentParametersUsed;
+	}
+
+	/**
+	 * Starts collecting copy of body that is written from now on. Collecting
+	 * stops if body gets larger than given number of bytes.
+	 * 
+	 * @param maxBytes
+	 *            Maximum number of collected bytes.
+	 */
+
+	public void captureBody(int maxBytes) {
+		capturedBody = new ByteArrayOutputStream(Math.min(maxBytes, bufferSize));
+		maxCapturedBytes = maxBytes;
+	}
+
+	/**
+	 * Gets collected copy of body.
+	 * 
+	 * @return Collected body, or null if body wasn't collected or was too
+	 *         large.
+	 */
+
+	public byte[] getCapturedBody() {
+		return capturedBody == null ? null : capturedBody.toByteArray();
+	}
+
 	/**
 	 * Gets dispatcher.
 	 * 
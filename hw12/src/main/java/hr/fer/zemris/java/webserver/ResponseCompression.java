@@ -0,0 +1,301 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compression of response bodies. Decides which content coding is used for
+ * client from its Accept-Encoding field and which responses are worth
+ * compressing: only bodies of allowed mime types that aren't smaller than
+ * threshold are compressed. Settings are read from mime properties. Deflaters
+ * hold native memory and are expensive to create, so they are kept in pools
+ * and reused by client workers.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ResponseCompression {
+	/**
+	 * Gzip content coding.
+	 */
+	public static final String gzip = "gzip";
+	/**
+	 * Deflate content coding.
+	 */
+	public static final String deflate = "deflate";
+	/**
+	 * Prefix of compression keys in mime properties.
+	 */
+	public static final String propertyPrefix = "compression.";
+	/**
+	 * Header of gzip stream without file name and modification time.
+	 */
+	private static final byte[] gzipHeader = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	/**
+	 * Maximum number of idle deflaters kept in every pool.
+	 */
+	private static final int maxIdleDeflaters = 64;
+	/**
+	 * Minimum body size in bytes that is compressed.
+	 */
+	private int threshold;
+	/**
+	 * Compression level.
+	 */
+	private int level;
+	/**
+	 * Mime types that are compressed.
+	 */
+	private Set<String> mimeTypes = new HashSet<>();
+	/**
+	 * Idle deflaters that produce raw deflate data for gzip streams.
+	 */
+	private Queue<Deflater> gzipDeflaters = new ConcurrentLinkedQueue<>();
+	/**
+	 * Idle deflaters that produce zlib streams.
+	 */
+	private Queue<Deflater> deflateDeflaters = new ConcurrentLinkedQueue<>();
+	/**
+	 * Number of idle gzip deflaters.
+	 */
+	private AtomicInteger gzipIdleCount = new AtomicInteger();
+	/**
+	 * Number of idle deflate deflaters.
+	 */
+	private AtomicInteger deflateIdleCount = new AtomicInteger();
+
+	/**
+	 * Constructor that reads settings from mime properties. Property
+	 * "compression.types" lists compressed mime types separated by commas,
+	 * "compression.threshold" is minimum compressed body size in bytes and
+	 * "compression.level" is deflate level.
+	 * 
+	 * @param properties
+	 *            Mime properties.
+	 * @throws IllegalArgumentException
+	 *             If properties are null.
+	 */
+
+	public ResponseCompression(Map<?, ?> properties) throws IllegalArgumentException {
+		if (properties == null) {
+			throw new IllegalArgumentException();
+		}
+
+		Object types = properties.get(propertyPrefix + "types");
+		if (types != null) {
+			for (String type : types.toString().split(",")) {
+				if (!type.trim().isEmpty()) {
+					mimeTypes.add(type.trim().toLowerCase());
+				}
+			}
+		}
+
+		Object threshold = properties.get(propertyPrefix + "threshold");
+		this.threshold = threshold == null ? 1024 : Integer.parseInt(threshold.toString().trim());
+		Object level = properties.get(propertyPrefix + "level");
+		this.level = level == null ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(level.toString().trim());
+	}
+
+	/**
+	 * Checks if bodies of given mime type are compressed.
+	 * 
+	 * @param mimeType
+	 *            Mime type.
+	 * @return True if mime type is compressed, false otherwise.
+	 */
+
+	public boolean isCompressible(String mimeType) {
+		return mimeType != null && mimeTypes.contains(mimeType.toLowerCase());
+	}
+
+	/**
+	 * Checks if body of given mime type and length is compressed.
+	 * 
+	 * @param mimeType
+	 *            Mime type.
+	 * @param length
+	 *            Length of body in bytes.
+	 * @return True if body is compressed, false otherwise.
+	 */
+
+	public boolean isCompressible(String mimeType, long length) {
+		return length >= threshold && isCompressible(mimeType);
+	}
+
+	/**
+	 * Chooses content coding from value of client's Accept-Encoding field.
+	 * Gzip is preferred over deflate and codings with zero quality are
+	 * refused.
+	 * 
+	 * @param acceptEncoding
+	 *            Value of Accept-Encoding field, can be null.
+	 * @return Chosen content coding, or null if body isn't compressed.
+	 */
+
+	public String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null || mimeTypes.isEmpty()) {
+			return null;
+		}
+
+		Boolean gzipAccepted = null;
+		Boolean deflateAccepted = null;
+		boolean anyAccepted = false;
+		for (String coding : acceptEncoding.split(",")) {
+			int semicolon = coding.indexOf(';');
+			String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim().toLowerCase();
+			boolean accepted = semicolon < 0 || quality(coding.substring(semicolon + 1)) > 0;
+
+			if (name.equals(gzip) || name.equals("x-gzip")) {
+				gzipAccepted = accepted;
+			} else if (name.equals(deflate)) {
+				deflateAccepted = accepted;
+			} else if (name.equals("*")) {
+				anyAccepted = accepted;
+			}
+		}
+
+		// Codings that aren't listed are accepted if "*" is accepted.
+		if (gzipAccepted == null ? anyAccepted : gzipAccepted) {
+			return gzip;
+		}
+		return (deflateAccepted == null ? anyAccepted : deflateAccepted) ? deflate : null;
+	}
+
+	/**
+	 * Reads quality from parameters of content coding.
+	 * 
+	 * @param parameters
+	 *            Parameters after coding name.
+	 * @return Quality, 1 if it isn't given or it is invalid.
+	 */
+
+	private static double quality(String parameters) {
+		for (String parameter : parameters.split(";")) {
+			String trimmed = parameter.trim();
+			if (trimmed.startsWith("q=")) {
+				try {
+					return Double.parseDouble(trimmed.substring(2));
+				} catch (NumberFormatException ignorable) {
+				}
+			}
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Takes deflater for given content coding from pool.
+	 * 
+	 * @param encoding
+	 *            Content coding.
+	 * @return Deflater ready for new stream.
+	 */
+
+	public Deflater acquire(String encoding) {
+		boolean isGzip = encoding.equals(gzip);
+		Deflater deflater = (isGzip ? gzipDeflaters : deflateDeflaters).poll();
+		if (deflater == null) {
+			return new Deflater(level, isGzip);
+		}
+
+		(isGzip ? gzipIdleCount : deflateIdleCount).decrementAndGet();
+		return deflater;
+	}
+
+	/**
+	 * Returns deflater to pool.
+	 * 
+	 * @param encoding
+	 *            Content coding.
+	 * @param deflater
+	 *            Deflater taken by {@link #acquire(String)}.
+	 */
+
+	public void release(String encoding, Deflater deflater) {
+		boolean isGzip = encoding.equals(gzip);
+		AtomicInteger idleCount = isGzip ? gzipIdleCount : deflateIdleCount;
+		if (idleCount.incrementAndGet() <= maxIdleDeflaters) {
+			deflater.reset();
+			(isGzip ? gzipDeflaters : deflateDeflaters).offer(deflater);
+		} else {
+			idleCount.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Compresses whole body with given content coding.
+	 * 
+	 * @param body
+	 *            Body.
+	 * @param encoding
+	 *            Content coding.
+	 * @return Compressed body.
+	 */
+
+	public byte[] compress(byte[] body, String encoding) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(body.length / 2 + 64);
+		if (encoding.equals(gzip)) {
+			bos.write(gzipHeader, 0, gzipHeader.length);
+		}
+
+		Deflater deflater = acquire(encoding);
+		byte[] buffer = new byte[8192];
+		deflater.setInput(body);
+		deflater.finish();
+		while (!deflater.finished()) {
+			int count = deflater.deflate(buffer);
+			bos.write(buffer, 0, count);
+		}
+		release(encoding, deflater);
+
+		if (encoding.equals(gzip)) {
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			byte[] trailer = new byte[8];
+			writeGzipTrailer(trailer, 0, crc.getValue(), body.length);
+			bos.write(trailer, 0, trailer.length);
+		}
+
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Gets header of gzip stream.
+	 * 
+	 * @return Gzip header.
+	 */
+
+	public static byte[] gzipHeader() {
+		return gzipHeader.clone();
+	}
+
+	/**
+	 * Writes trailer of gzip stream with checksum and size of uncompressed
+	 * data, both in little endian order.
+	 * 
+	 * @param data
+	 *            Array into which trailer is written.
+	 * @param offset
+	 *            Offset of trailer.
+	 * @param crc
+	 *            CRC32 of uncompressed data.
+	 * @param size
+	 *            Size of uncompressed data.
+	 */
+
+	public static void writeGzipTrailer(byte[] data, int offset, long crc, long size) {
+		for (int i = 0; i < 4; i++) {
+			data[offset + i] = (byte) (crc >>> (8 * i));
+			data[offset + 4 + i] = (byte) (size >>> (8 * i));
+		}
+	}
+}
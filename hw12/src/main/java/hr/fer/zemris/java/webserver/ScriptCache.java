@@ -0,0 +1,162 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
+import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
+
+/**
+ * Cache of compiled smart scripts. Each script is read and parsed by
+ * {@link SmartScriptParser} and compiled into {@link CompiledScript} only once
+ * and compiled script is reused for every following request. Compiled scripts
+ * aren't changed during execution so same script can be executed by more
+ * threads at once. Cached
+ * script is parsed again if its modification time or size changed. Cache holds
+ * limited number of scripts and least recently used script is evicted when it
+ * is full.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ScriptCache {
+	/**
+	 * Cached scripts in order of access, least recently used first.
+	 */
+	private Map<Path, CachedScript> entries;
+	/**
+	 * Lock that guards entries.
+	 */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Constructor that gets maximum number of cached scripts.
+	 * 
+	 * @param maxScripts
+	 *            Maximum number of cached scripts.
+	 * @throws IllegalArgumentException
+	 *             If maximum number of scripts isn't positive.
+	 */
+
+	public ScriptCache(int maxScripts) throws IllegalArgumentException {
+		if (maxScripts < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		entries = new LinkedHashMap<Path, CachedScript>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Path, CachedScript> eldest) {
+				return size() > maxScripts;
+			}
+		};
+	}
+
+	/**
+	 * Gets compiled script from given file. Script is parsed and compiled if
+	 * it isn't cached or if file changed since it was cached.
+	 * 
+	 * @param script
+	 *            Path to script.
+	 * @return Compiled script.
+	 * @throws IOException
+	 *             If script couldn't be read.
+	 * @throws SmartScriptParserException
+	 *             If script couldn't be parsed.
+	 */
+
+	public CompiledScript get(Path script) throws IOException, SmartScriptParserException {
+		long modified = Files.getLastModifiedTime(script).toMillis();
+		long size = Files.size(script);
+
+		CachedScript entry;
+		lock.lock();
+		try {
+			entry = entries.get(script);
+		} finally {
+			lock.unlock();
+		}
+
+		if (entry != null && entry.modified == modified && entry.size == size) {
+			return entry.compiledScript;
+		}
+
+		CompiledScript compiledScript = CompiledScript.compile(parse(script));
+		lock.lock();
+		try {
+			entries.put(script, new CachedScript(compiledScript, modified, size));
+		} finally {
+			lock.unlock();
+		}
+
+		return compiledScript;
+	}
+
+	/**
+	 * Reads and parses script from given file.
+	 * 
+	 * @param script
+	 *            Path to script.
+	 * @return Document node of parsed script.
+	 * @throws IOException
+	 *             If script couldn't be read.
+	 * @throws SmartScriptParserException
+	 *             If script couldn't be parsed.
+	 */
+
+	public static DocumentNode parse(Path script) throws IOException, SmartScriptParserException {
+		String expression = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+
+		return new SmartScriptParser(expression).getDocumentNode();
+	}
+
+	/**
+	 * Compiled script with modification time and size of file it was parsed
+	 * from.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class CachedScript {
+		/**
+		 * Compiled script.
+		 */
+		private CompiledScript compiledScript;
+		/**
+		 * Time of last modification in milliseconds.
+		 */
+		private long modified;
+		/**
+		 * Size of file.
+		 */
+		private long size;
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param compiledScript
+		 *            Compiled script.
+		 * @param modified
+		 *            Time of last modification in milliseconds.
+		 * @param size
+		 *            Size of file.
+		 */
+
+		private CachedScript(CompiledScript compiledScript, long modified, long size) {
+			this.compiledScript = compiledScript;
+			this.modified = modified;
+			this.size = size;
+		}
+	}
+}
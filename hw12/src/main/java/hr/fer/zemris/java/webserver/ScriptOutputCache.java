@@ -0,0 +1,308 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of smart script output. Script opts in by declaring for how many
+ * seconds its output can be cached, after which output is stored under script
+ * path and request parameters and following requests with same parameters
+ * get stored output without executing script. Output of script that uses
+ * persistent parameters is never cached because it depends on session. Cached
+ * output is dropped when it expires or when script file changes. Cache has
+ * limited number of bytes it can hold and when it is full least recently used
+ * outputs are evicted.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ScriptOutputCache {
+	/**
+	 * Maximum number of bytes held by cache.
+	 */
+	private long maxBytes;
+	/**
+	 * Maximum size of single cached output.
+	 */
+	private int maxOutputSize;
+	/**
+	 * Number of bytes currently held by cache.
+	 */
+	private long usedBytes;
+	/**
+	 * Cached outputs in order of access, least recently used first.
+	 */
+	private LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	/**
+	 * Lock that guards entries.
+	 */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Constructor that sets attributes.
+	 * 
+	 * @param maxBytes
+	 *            Maximum number of bytes held by cache.
+	 * @param maxOutputSize
+	 *            Maximum size of single cached output.
+	 * @throws IllegalArgumentException
+	 *             If maximum number of bytes or output size isn't positive.
+	 */
+
+	public ScriptOutputCache(long maxBytes, int maxOutputSize) throws IllegalArgumentException {
+		if (maxBytes < 1 || maxOutputSize < 1) {
+			throw new IllegalArgumentException();
+		}
+
+		this.maxBytes = maxBytes;
+		this.maxOutputSize = (int) Math.min(maxOutputSize, maxBytes);
+	}
+
+	/**
+	 * Gets maximum size of single cached output, larger outputs aren't
+	 * collected.
+	 * 
+	 * @return Maximum size of output in bytes.
+	 */
+
+	public int getMaxOutputSize() {
+		return maxOutputSize;
+	}
+
+	/**
+	 * Gets cached output of script for given parameters. Output that expired
+	 * or was made by older version of script is removed.
+	 * 
+	 * @param script
+	 *            Path to script.
+	 * @param parameters
+	 *            Request parameters.
+	 * @return Cached output, or null if there is none.
+	 */
+
+	public Entry get(Path script, Map<String, String> parameters) {
+		Key key = new Key(script, parameters);
+		Entry entry;
+		lock.lock();
+		try {
+			entry = entries.get(key);
+		} finally {
+			lock.unlock();
+		}
+
+		if (entry == null) {
+			return null;
+		}
+
+		if (System.nanoTime() - entry.expires < 0 && entry.isCurrent(script)) {
+			return entry;
+		}
+
+		lock.lock();
+		try {
+			if (entries.remove(key, entry)) {
+				usedBytes -= entry.body.length;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return null;
+	}
+
+	/**
+	 * Stores output of script for given parameters and evicts least recently
+	 * used outputs while cache holds more bytes than allowed.
+	 * 
+	 * @param script
+	 *            Path to script.
+	 * @param parameters
+	 *            Request parameters.
+	 * @param mimeType
+	 *            Mime type of output.
+	 * @param body
+	 *            Output.
+	 * @param ttl
+	 *            Time in seconds for which output is valid.
+	 */
+
+	public void put(Path script, Map<String, String> parameters, String mimeType, byte[] body, int ttl) {
+		if (body.length > maxOutputSize || ttl < 1) {
+			return;
+		}
+
+		Entry entry;
+		try {
+			entry = new Entry(mimeType, body, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttl),
+					Files.getLastModifiedTime(script).toMillis(), Files.size(script));
+		} catch (IOException e) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			Entry old = entries.put(new Key(script, new TreeMap<>(parameters)), entry);
+			if (old != null) {
+				usedBytes -= old.body.length;
+			}
+			usedBytes += body.length;
+
+			Iterator<Entry> it = entries.values().iterator();
+			while (usedBytes > maxBytes && it.hasNext()) {
+				usedBytes -= it.next().body.length;
+				it.remove();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cached output of script.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static class Entry {
+		/**
+		 * Mime type of output.
+		 */
+		private String mimeType;
+		/**
+		 * Output.
+		 */
+		private byte[] body;
+		/**
+		 * Time in nanoseconds when output expires.
+		 */
+		private long expires;
+		/**
+		 * Time of last modification of script in milliseconds.
+		 */
+		private long modified;
+		/**
+		 * Size of script file.
+		 */
+		private long size;
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param mimeType
+		 *            Mime type of output.
+		 * @param body
+		 *            Output.
+		 * @param expires
+		 *            Time in nanoseconds when output expires.
+		 * @param modified
+		 *            Time of last modification of script in milliseconds.
+		 * @param size
+		 *            Size of script file.
+		 */
+
+		private Entry(String mimeType, byte[] body, long expires, long modified, long size) {
+			this.mimeType = mimeType;
+			this.body = body;
+			this.expires = expires;
+			this.modified = modified;
+			this.size = size;
+		}
+
+		/**
+		 * Gets mime type of output.
+		 * 
+		 * @return Mime type.
+		 */
+
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Gets output. Returned array mustn't be changed.
+		 * 
+		 * @return Output.
+		 */
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Checks if script wasn't changed since output was cached.
+		 * 
+		 * @param script
+		 *            Path to script.
+		 * @return True if output belongs to current script, false otherwise.
+		 */
+
+		private boolean isCurrent(Path script) {
+			try {
+				return Files.getLastModifiedTime(script).toMillis() == modified && Files.size(script) == size;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Key of cached output made of script path and request parameters.
+	 * Parameters are compared as map, so their order in request doesn't
+	 * matter.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class Key {
+		/**
+		 * Path to script.
+		 */
+		private Path script;
+		/**
+		 * Request parameters.
+		 */
+		private Map<String, String> parameters;
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param script
+		 *            Path to script.
+		 * @param parameters
+		 *            Request parameters.
+		 */
+
+		private Key(Path script, Map<String, String> parameters) {
+			this.script = script;
+			this.parameters = parameters;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * script.hashCode() + parameters.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) obj;
+			return script.equals(other.script) && parameters.equals(other.parameters);
+		}
+	}
+}
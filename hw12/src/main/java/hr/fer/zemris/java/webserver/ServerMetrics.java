@@ -0,0 +1,348 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects metrics of {@link SmartHttpServer}. For every route (web worker,
+ * smart script, external worker or static file) it counts requests, bytes sent
+ * and responses by status code and keeps histogram of request latencies. It
+ * also tracks number of open connections and state of worker thread pool.
+ * Metrics are written in plain text format that can be read by metrics
+ * scrapers.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class ServerMetrics {
+	/**
+	 * Route of configured web workers.
+	 */
+	public static final String workerRoute = "worker";
+	/**
+	 * Route of smart scripts.
+	 */
+	public static final String scriptRoute = "script";
+	/**
+	 * Route of external workers.
+	 */
+	public static final String extRoute = "ext";
+	/**
+	 * Route of static files.
+	 */
+	public static final String staticRoute = "static";
+	/**
+	 * Route of requests that were rejected before they were dispatched.
+	 */
+	public static final String otherRoute = "other";
+	/**
+	 * Quantiles of latency that are reported.
+	 */
+	private static final double[] quantiles = { 0.5, 0.99, 0.999 };
+	/**
+	 * Metrics of every route.
+	 */
+	private ConcurrentMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+	/**
+	 * Number of open connections.
+	 */
+	private AtomicInteger activeConnections = new AtomicInteger();
+	/**
+	 * Number of rejected clients by reason of rejection.
+	 */
+	private ConcurrentMap<String, AtomicLong> rejections = new ConcurrentHashMap<>();
+	/**
+	 * Thread pools of client workers, one for every acceptor.
+	 */
+	private volatile List<ExecutorService> threadPools = Collections.emptyList();
+
+	/**
+	 * Records finished request.
+	 * 
+	 * @param route
+	 *            Route of request.
+	 * @param statusCode
+	 *            Status code of response.
+	 * @param bytesSent
+	 *            Number of body bytes sent.
+	 * @param latencyNanos
+	 *            Time in nanoseconds spent serving request.
+	 */
+
+	public void record(String route, int statusCode, long bytesSent, long latencyNanos) {
+		RouteMetrics metrics = routes.computeIfAbsent(route, key -> new RouteMetrics());
+
+		metrics.requests.incrementAndGet();
+		metrics.bytesSent.addAndGet(bytesSent);
+		metrics.statusCodes.computeIfAbsent(statusCode, key -> new AtomicLong()).incrementAndGet();
+		metrics.latency.record(latencyNanos / 1000);
+	}
+
+	/**
+	 * Records that client was rejected by admission control.
+	 * 
+	 * @param reason
+	 *            Reason of rejection.
+	 */
+
+	public void clientRejected(String reason) {
+		rejections.computeIfAbsent(reason, key -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * Records that connection was opened.
+	 */
+
+	public void connectionOpened() {
+		activeConnections.incrementAndGet();
+	}
+
+	/**
+	 * Records that connection was closed.
+	 */
+
+	public void connectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Sets thread pools whose queue depth is reported.
+	 * 
+	 * @param threadPools
+	 *            Thread pools of client workers.
+	 */
+
+	public void setThreadPools(List<ExecutorService> threadPools) {
+		this.threadPools = new ArrayList<>(threadPools);
+	}
+
+	/**
+	 * Writes all metrics in plain text format.
+	 * 
+	 * @return Metrics in text format.
+	 */
+
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		Map<String, RouteMetrics> sorted = new TreeMap<>(routes);
+
+		sb.append("# TYPE smarthttp_requests_total counter\n");
+		for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			sb.append(String.format(Locale.ROOT, "smarthttp_requests_total{route=\"%s\"} %d\n", route.getKey(),
+					route.getValue().requests.get()));
+		}
+
+		sb.append("# TYPE smarthttp_bytes_sent_total counter\n");
+		for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			sb.append(String.format(Locale.ROOT, "smarthttp_bytes_sent_total{route=\"%s\"} %d\n", route.getKey(),
+					route.getValue().bytesSent.get()));
+		}
+
+		sb.append("# TYPE smarthttp_responses_total counter\n");
+		for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			for (Map.Entry<Integer, AtomicLong> status : new TreeMap<>(route.getValue().statusCodes).entrySet()) {
+				sb.append(String.format(Locale.ROOT, "smarthttp_responses_total{route=\"%s\",status=\"%d\"} %d\n",
+						route.getKey(), status.getKey(), status.getValue().get()));
+			}
+		}
+
+		sb.append("# TYPE smarthttp_request_latency_seconds summary\n");
+		for (Map.Entry<String, RouteMetrics> route : sorted.entrySet()) {
+			LatencyHistogram latency = route.getValue().latency;
+			for (double quantile : quantiles) {
+				sb.append(String.format(Locale.ROOT,
+						"smarthttp_request_latency_seconds{route=\"%s\",quantile=\"%s\"} %.6f\n", route.getKey(),
+						quantile, latency.percentile(quantile) / 1e6));
+			}
+			sb.append(String.format(Locale.ROOT, "smarthttp_request_latency_seconds_sum{route=\"%s\"} %.6f\n",
+					route.getKey(), latency.sum.get() / 1e6));
+			sb.append(String.format(Locale.ROOT, "smarthttp_request_latency_seconds_count{route=\"%s\"} %d\n",
+					route.getKey(), latency.count.get()));
+		}
+
+		sb.append("# TYPE smarthttp_active_connections gauge\n");
+		sb.append(String.format(Locale.ROOT, "smarthttp_active_connections %d\n", activeConnections.get()));
+
+		sb.append("# TYPE smarthttp_rejected_clients_total counter\n");
+		for (Map.Entry<String, AtomicLong> rejection : new TreeMap<>(rejections).entrySet()) {
+			sb.append(String.format(Locale.ROOT, "smarthttp_rejected_clients_total{reason=\"%s\"} %d\n",
+					rejection.getKey(), rejection.getValue().get()));
+		}
+
+		int queueDepth = 0;
+		int activeWorkers = 0;
+		boolean bounded = false;
+		for (ExecutorService threadPool : threadPools) {
+			if (threadPool instanceof ThreadPoolExecutor) {
+				ThreadPoolExecutor executor = (ThreadPoolExecutor) threadPool;
+				queueDepth += executor.getQueue().size();
+				activeWorkers += executor.getActiveCount();
+				bounded = true;
+			}
+		}
+		if (bounded) {
+			sb.append("# TYPE smarthttp_worker_queue_depth gauge\n");
+			sb.append(String.format(Locale.ROOT, "smarthttp_worker_queue_depth %d\n", queueDepth));
+			sb.append("# TYPE smarthttp_active_workers gauge\n");
+			sb.append(String.format(Locale.ROOT, "smarthttp_active_workers %d\n", activeWorkers));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Metrics of single route.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class RouteMetrics {
+		/**
+		 * Number of requests.
+		 */
+		private AtomicLong requests = new AtomicLong();
+		/**
+		 * Number of body bytes sent.
+		 */
+		private AtomicLong bytesSent = new AtomicLong();
+		/**
+		 * Number of responses for every status code.
+		 */
+		private ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+		/**
+		 * Latency histogram.
+		 */
+		private LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	/**
+	 * Histogram of latencies in microseconds with bounded relative error.
+	 * Values are split in ranges between consecutive powers of two and every
+	 * range is divided in same number of linear sub-buckets, so every value is
+	 * recorded with precision of few percent no matter how large it is.
+	 * Recording doesn't allocate or lock.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	private static class LatencyHistogram {
+		/**
+		 * Number of bits used for sub-bucket index.
+		 */
+		private static final int subBucketBits = 4;
+		/**
+		 * Number of sub-buckets in every range.
+		 */
+		private static final int subBuckets = 1 << subBucketBits;
+		/**
+		 * Largest recorded exponent, larger values are recorded in last bucket.
+		 */
+		private static final int maxExponent = 40;
+		/**
+		 * Counts of recorded values in every bucket.
+		 */
+		private AtomicLongArray buckets = new AtomicLongArray(subBuckets * (maxExponent - subBucketBits + 2));
+		/**
+		 * Number of recorded values.
+		 */
+		private AtomicLong count = new AtomicLong();
+		/**
+		 * Sum of recorded values.
+		 */
+		private AtomicLong sum = new AtomicLong();
+
+		/**
+		 * Records value.
+		 * 
+		 * @param value
+		 *            Value in microseconds.
+		 */
+
+		private void record(long value) {
+			value = Math.max(value, 0);
+			buckets.incrementAndGet(Math.min(bucketIndex(value), buckets.length() - 1));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+		}
+
+		/**
+		 * Gets value below which given part of recorded values lies.
+		 * 
+		 * @param quantile
+		 *            Quantile between 0 and 1.
+		 * @return Value in microseconds.
+		 */
+
+		private long percentile(double quantile) {
+			long total = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				total += buckets.get(i);
+			}
+			if (total == 0) {
+				return 0;
+			}
+
+			long target = Math.max(1, (long) Math.ceil(quantile * total));
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				seen += buckets.get(i);
+				if (seen >= target) {
+					return bucketUpperBound(i);
+				}
+			}
+
+			return bucketUpperBound(buckets.length() - 1);
+		}
+
+		/**
+		 * Calculates index of bucket for given value.
+		 * 
+		 * @param value
+		 *            Value.
+		 * @return Bucket index.
+		 */
+
+		private static int bucketIndex(long value) {
+			if (value < subBuckets) {
+				return (int) value;
+			}
+
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) (value >> (exponent - subBucketBits)) & (subBuckets - 1);
+			return subBuckets + (exponent - subBucketBits) * subBuckets + subBucket;
+		}
+
+		/**
+		 * Calculates largest value that is recorded in given bucket.
+		 * 
+		 * @param index
+		 *            Bucket index.
+		 * @return Largest value of bucket.
+		 */
+
+		private static long bucketUpperBound(int index) {
+			if (index < subBuckets) {
+				return index;
+			}
+
+			int exponent = (index - subBuckets) / subBuckets + subBucketBits;
+			long subBucket = (index - subBuckets) % subBuckets;
+			long width = 1L << (exponent - subBucketBits);
+			return (1L << exponent) + (subBucket + 1) * width - 1;
+		}
+	}
+}
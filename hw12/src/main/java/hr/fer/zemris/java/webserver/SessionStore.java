@@ -0,0 +1,313 @@
+package hr.fer.zemris.java.webserver;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Store of client sessions that can be used by many client workers at once
+ * without global lock. Sessions are kept in {@link ConcurrentHashMap} and
+ * refreshing session only updates its expiry time. Expired sessions are
+ * removed incrementally by timing wheel: every session is placed in slot of
+ * wheel that matches its expiry time and once per tick only sessions from
+ * current slot are checked. Session that was refreshed in meantime is just
+ * moved to slot of its new expiry time.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class SessionStore {
+	/**
+	 * Length of session ID.
+	 */
+	private static final int sidLength = 20;
+	/**
+	 * Duration of one wheel tick in milliseconds.
+	 */
+	private static final long tickDuration = 1000;
+	/**
+	 * Number of slots in wheel.
+	 */
+	private static final int wheelSize = 512;
+	/**
+	 * Random generator of session IDs.
+	 */
+	private static final SecureRandom random = new SecureRandom();
+	/**
+	 * Sessions.
+	 */
+	private Map<String, Session> sessions = new ConcurrentHashMap<>();
+	/**
+	 * Slots of timing wheel.
+	 */
+	private Queue<Session>[] wheel;
+	/**
+	 * Number of ticks since wheel started.
+	 */
+	private volatile long currentTick;
+	/**
+	 * Time of wheel start in milliseconds.
+	 */
+	private long startTime;
+	/**
+	 * Time before session expires in milliseconds.
+	 */
+	private long timeout;
+	/**
+	 * Source of current time in milliseconds.
+	 */
+	private LongSupplier clock;
+	/**
+	 * Log to which created and removed sessions are written.
+	 */
+	private AccessLog log;
+
+	/**
+	 * Constructor that gets time before session expires.
+	 * 
+	 * @param timeout
+	 *            Time before session expires in seconds.
+	 * @param log
+	 *            Log to which created and removed sessions are written.
+	 * @throws IllegalArgumentException
+	 *             If log is null.
+	 */
+
+	public SessionStore(int timeout, AccessLog log) throws IllegalArgumentException {
+		this(timeout, log, System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor that gets time before session expires and source of current
+	 * time.
+	 * 
+	 * @param timeout
+	 *            Time before session expires in seconds.
+	 * @param log
+	 *            Log to which created and removed sessions are written.
+	 * @param clock
+	 *            Source of current time in milliseconds.
+	 * @throws IllegalArgumentException
+	 *             If log is null.
+	 */
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	SessionStore(int timeout, AccessLog log, LongSupplier clock) throws IllegalArgumentException {
+		if (log == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.timeout = timeout * 1000L;
+		this.log = log;
+		this.clock = clock;
+		this.startTime = clock.getAsLong();
+
+		wheel = new Queue[wheelSize];
+		for (int i = 0; i < wheelSize; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * Starts daemon thread that removes expired sessions.
+	 */
+
+	public void start() {
+		Thread deleter = new Thread(this::expire);
+		deleter.setDaemon(true);
+		deleter.start();
+	}
+
+	/**
+	 * Gets session with given ID and refreshes its expiry time. If session
+	 * doesn't exist or it expired null is returned.
+	 * 
+	 * @param sid
+	 *            Session ID.
+	 * @return Session or null.
+	 */
+
+	public Session get(String sid) {
+		Session session = sessions.get(sid);
+		if (session == null) {
+			return null;
+		}
+
+		long now = clock.getAsLong();
+		if (session.validUntil <= now) {
+			if (sessions.remove(sid, session)) {
+				log.log(AccessLog.Level.DEBUG, "Removing session cookie: " + sid);
+			}
+			return null;
+		}
+
+		session.validUntil = now + timeout;
+		return session;
+	}
+
+	/**
+	 * Creates new session with random ID.
+	 * 
+	 * @return New session.
+	 */
+
+	public Session create() {
+		while (true) {
+			Session session = new Session(generateSid(), clock.getAsLong() + timeout);
+			if (sessions.putIfAbsent(session.sid, session) == null) {
+				schedule(session);
+				log.log(AccessLog.Level.DEBUG, "Creating session cookie: " + session.sid);
+				return session;
+			}
+		}
+	}
+
+	/**
+	 * Gets number of stored sessions.
+	 * 
+	 * @return Number of sessions.
+	 */
+
+	public int size() {
+		return sessions.size();
+	}
+
+	/**
+	 * Generates random session ID made of uppercase letters.
+	 * 
+	 * @return Session ID.
+	 */
+
+	private String generateSid() {
+		StringBuilder sb = new StringBuilder(sidLength);
+		for (int i = 0; i < sidLength; i++) {
+			// Generates random uppercase letter.
+			sb.append((char) (random.nextInt('Z' - 'A' + 1) + 'A'));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Places session in wheel slot that matches its expiry time.
+	 * 
+	 * @param session
+	 *            Session.
+	 */
+
+	private void schedule(Session session) {
+		long tick = Math.max((session.validUntil - startTime) / tickDuration + 1, currentTick + 1);
+		wheel[(int) (tick % wheelSize)].add(session);
+	}
+
+	/**
+	 * Advances wheel once per tick.
+	 */
+
+	private void expire() {
+		while (true) {
+			long sleep = startTime + (currentTick + 1) * tickDuration - clock.getAsLong();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			tick();
+		}
+	}
+
+	/**
+	 * Advances wheel by one tick and removes expired sessions from current
+	 * slot. Sessions whose deadline is in some later round of wheel or that
+	 * were refreshed are scheduled again.
+	 */
+
+	void tick() {
+		long nextTick = currentTick + 1;
+		currentTick = nextTick;
+
+		long now = clock.getAsLong();
+		Queue<Session> slot = wheel[(int) (nextTick % wheelSize)];
+		// Sessions added to slot while it is drained are checked in next round.
+		for (int i = slot.size(); i > 0; i--) {
+			Session session = slot.poll();
+			if (session == null) {
+				break;
+			}
+
+			if (sessions.get(session.sid) != session) {
+				continue;
+			}
+
+			if (session.validUntil <= now) {
+				if (sessions.remove(session.sid, session)) {
+					log.log(AccessLog.Level.DEBUG, "Removing session cookie: " + session.sid);
+				}
+			} else {
+				schedule(session);
+			}
+		}
+	}
+
+	/**
+	 * Session of single client.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static class Session {
+		/**
+		 * Session ID.
+		 */
+		private String sid;
+		/**
+		 * Time in milliseconds until session is valid.
+		 */
+		private volatile long validUntil;
+		/**
+		 * Map in which parameters are stored for session.
+		 */
+		private Map<String, String> parameters = new ConcurrentHashMap<>();
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param sid
+		 *            Session ID.
+		 * @param validUntil
+		 *            Time in milliseconds until session is valid.
+		 */
+
+		private Session(String sid, long validUntil) {
+			this.sid = sid;
+			this.validUntil = validUntil;
+		}
+
+		/**
+		 * Gets session ID.
+		 * 
+		 * @return Session ID.
+		 */
+
+		public String getSid() {
+			return sid;
+		}
+
+		/**
+		 * Gets map of persistent parameters.
+		 * 
+		 * @return Persistent parameters.
+		 */
+
+		public Map<String, String> getParameters() {
+			return parameters;
+		}
+	}
+}
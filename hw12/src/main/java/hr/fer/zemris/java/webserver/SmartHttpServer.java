@@ -1,39 +1,51 @@
 package hr.fer.zemris.java.webserver;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
+import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Random;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import hr.fer.zemris.java.custom.scripting.exec.CompiledScript;
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
-import hr.fer.zemris.java.custom.scripting.nodes.DocumentNode;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParserException;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.workers.MetricsWorker;
 
 /**
  * Web server that gets single argument that is path to server properties. In
@@ -74,6 +86,7 @@ import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
  * "http://127.0.0.1:5721/calc?a=11&b=22">http://127.0.0.1:5721/calc?a=11&b=22</a><br>
  * <a href=
  * "http://127.0.0.1:5721/magikarp.gif">http://127.0.0.1:5721/magikarp.gif</a><br>
+ * <a href="http://127.0.0.1:5721/metrics">http://127.0.0.1:5721/metrics</a><br>
  * <br>
  * To shut down server type "stop".
  * 
@@ -82,6 +95,23 @@ import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
  */
 
 public class SmartHttpServer {
+	/**
+	 * Package of workers called through "/ext/" paths.
+	 */
+	private static final String extWorkersPackage = "hr.fer.zemris.java.webserver.workers";
+	/**
+	 * Maximum number of remembered names that don't belong to "/ext/" workers.
+	 */
+	private static final int maxUnknownExtWorkers = 1024;
+	/**
+	 * Size of buffer into which bytes are read from client.
+	 */
+	private static final int readBufferSize = 2048;
+	/**
+	 * Socket option that lets more sockets listen on same port, or null if
+	 * Java runtime doesn't have it.
+	 */
+	private static final SocketOption<Boolean> reusePort = findReusePort();
 	/**
 	 * Server address.
 	 */
@@ -98,22 +128,48 @@ public class SmartHttpServer {
 	 * Time before session cookie expires.
 	 */
 	private int sessionTimeout;
+	/**
+	 * Time in seconds that idle kept alive connection waits for next request.
+	 */
+	private int keepAliveTimeout;
+	/**
+	 * Maximum number of requests served on single connection.
+	 */
+	private int maxKeepAliveRequests;
+	/**
+	 * Maximum size of request header in bytes.
+	 */
+	private int maxHeaderSize;
+	/**
+	 * Maximum number of header fields in request.
+	 */
+	private int maxHeaderCount;
+	/**
+	 * Size of buffer in which response body is collected before it is sent.
+	 */
+	private int responseBufferSize;
 	/**
 	 * Mime types map.
 	 */
 	private Map<String, String> mimeTypes = new HashMap<String, String>();
 	/**
-	 * Server thread.
+	 * Settings of response compression.
+	 */
+	private ResponseCompression compression;
+	/**
+	 * Flag that tells if connections are accepted and read by single
+	 * non-blocking event loop instead of blocking server thread.
 	 */
-	private ServerThread serverThread;
+	private boolean eventLoop;
 	/**
-	 * Client worker threads.
+	 * Number of threads that accept clients, each with its own group of
+	 * worker threads.
 	 */
-	private ExecutorService threadPool;
+	private int acceptors;
 	/**
-	 * Session deleter.
+	 * Threads that accept clients.
 	 */
-	private SessionDeleter sessionDeleter;
+	private List<AcceptorThread> acceptorThreads = new ArrayList<>();
 	/**
 	 * Document root.
 	 */
@@ -123,26 +179,62 @@ public class SmartHttpServer {
 	 */
 	private volatile boolean serverRunning = false;
 	/**
-	 * Mutex used for synchronization of client workers while checking cookie
-	 * session.
+	 * Flag that tells if every client worker runs on its own virtual thread.
 	 */
-	private volatile Object clientWorkerMutex = new Object();
+	private boolean virtualThreads;
 	/**
 	 * Workers.
 	 */
-	private Map<String, IWebWorker> workersMap = new HashMap<>();
+	private Map<String, WorkerPool> workersMap = new HashMap<>();
+	/**
+	 * Workers called through "/ext/" paths.
+	 */
+	private ExtWorkerRegistry extWorkers;
 	/**
 	 * Sessions.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
+	private SessionStore sessions;
+	/**
+	 * Cache of static files, or null if caching is disabled.
+	 */
+	private StaticFileCache staticCache;
+	/**
+	 * Cache of parsed smart scripts, or null if caching is disabled.
+	 */
+	private ScriptCache scriptCache;
 	/**
-	 * Used for generated session id.
+	 * Cache of output of smart scripts, or null if caching is disabled.
 	 */
-	private Random sessionRandom = new Random();
+	private ScriptOutputCache outputCache;
 	/**
-	 * Server socket.
+	 * Server metrics.
 	 */
-	private ServerSocket serverSocket;
+	private ServerMetrics metrics = new ServerMetrics();
+	/**
+	 * Access log.
+	 */
+	private AccessLog accessLog;
+	/**
+	 * Maximum number of clients that wait for worker thread.
+	 */
+	private int maxQueuedClients;
+	/**
+	 * Admission control of clients.
+	 */
+	private AdmissionControl admission;
+	/**
+	 * Time in milliseconds that stopping server waits for requests in
+	 * progress.
+	 */
+	private long shutdownTimeout;
+	/**
+	 * Client workers that are running.
+	 */
+	private Set<ClientWorker> activeWorkers = ConcurrentHashMap.newKeySet();
+	/**
+	 * Number of requests finished while server was stopping.
+	 */
+	private AtomicInteger drainedRequests = new AtomicInteger();
 
 	/**
 	 * Constructor that gets path to server config file and loads server
@@ -166,18 +258,184 @@ public class SmartHttpServer {
 		}
 
 		serverRunning = true;
-		serverThread = new ServerThread();
-		serverThread.start();
-
-		sessionDeleter = new SessionDeleter();
-		sessionDeleter.setDaemon(true);
-		sessionDeleter.start();
-
-		threadPool = Executors.newFixedThreadPool(workerThreads, runnable -> {
-			Thread thread = new Thread(runnable);
-			thread.setDaemon(true);
-			return thread;
-		});
+		boolean reuse = acceptors > 1 && isReusePortSupported();
+		try {
+			InetSocketAddress socketAddress = new InetSocketAddress(InetAddress.getByName(address), port);
+			ServerSocket serverSocket = null;
+			ServerSocketChannel serverChannel = null;
+			for (int i = 0; i < acceptors; i++) {
+				// Without SO_REUSEPORT all acceptors share single listening socket.
+				if (eventLoop) {
+					if (reuse || serverChannel == null) {
+						serverChannel = openServerChannel(socketAddress, reuse);
+					}
+					acceptorThreads.add(new EventLoopThread(serverChannel, createThreadPool()));
+				} else {
+					if (reuse || serverSocket == null) {
+						serverSocket = openServerSocket(socketAddress, reuse);
+					}
+					acceptorThreads.add(new ServerThread(serverSocket, createThreadPool()));
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("Error while creating server socket.");
+			System.exit(0);
+		}
+
+		List<ExecutorService> threadPools = new ArrayList<>();
+		for (AcceptorThread acceptor : acceptorThreads) {
+			threadPools.add(acceptor.threadPool);
+			acceptor.start();
+		}
+		metrics.setThreadPools(threadPools);
+		System.out.printf("Server successfully started%s.%n", eventLoop ? " in event loop mode" : "");
+		if (acceptors > 1) {
+			System.out.printf("%d acceptors listen on %s.%n", acceptors,
+					reuse ? "their own sockets with SO_REUSEPORT" : "shared socket");
+		}
+
+		sessions.start();
+		accessLog.start();
+	}
+
+	/**
+	 * Looks up SO_REUSEPORT socket option.
+	 * 
+	 * @return Socket option, or null if Java runtime doesn't have it.
+	 */
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> findReusePort() {
+		try {
+			// Looked up reflectively because option exists only since Java 9.
+			return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if Java runtime and platform support SO_REUSEPORT.
+	 * 
+	 * @return True if more sockets can listen on same port, false otherwise.
+	 */
+
+	static boolean isReusePortSupported() {
+		if (reusePort == null) {
+			return false;
+		}
+
+		try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+			return channel.supportedOptions().contains(reusePort);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens server socket used by blocking server thread.
+	 * 
+	 * @param socketAddress
+	 *            Address on which server listens.
+	 * @param reuse
+	 *            True if SO_REUSEPORT is enabled.
+	 * @return Bound server socket.
+	 * @throws IOException
+	 *             If socket couldn't be opened or bound.
+	 */
+
+	private static ServerSocket openServerSocket(InetSocketAddress socketAddress, boolean reuse) throws IOException {
+		// Accepted sockets have channels, so files can be sent with zero-copy transfer.
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		if (reuse) {
+			serverChannel.setOption(reusePort, true);
+		}
+
+		serverChannel.bind(socketAddress);
+		return serverChannel.socket();
+	}
+
+	/**
+	 * Opens non-blocking server channel used by event loop.
+	 * 
+	 * @param socketAddress
+	 *            Address on which server listens.
+	 * @param reuse
+	 *            True if SO_REUSEPORT is enabled.
+	 * @return Bound server channel.
+	 * @throws IOException
+	 *             If channel couldn't be opened or bound.
+	 */
+
+	private static ServerSocketChannel openServerChannel(InetSocketAddress socketAddress, boolean reuse)
+			throws IOException {
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		if (reuse) {
+			serverChannel.setOption(reusePort, true);
+		}
+
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(socketAddress);
+		return serverChannel;
+	}
+
+	/**
+	 * Creates executor that runs client workers of single acceptor. If
+	 * virtual threads are enabled and supported by Java runtime each client
+	 * worker gets its own virtual thread, otherwise fixed number of worker
+	 * threads is used and queue of waiting client workers is bounded. Worker
+	 * threads and queue places are divided evenly among acceptors.
+	 * 
+	 * @return Executor that runs client workers.
+	 */
+
+	private ExecutorService createThreadPool() {
+		if (virtualThreads) {
+			try {
+				// Looked up reflectively so server still runs on older Java versions.
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				System.out.println("Virtual threads aren't supported, using worker threads instead.");
+			}
+		}
+
+		int threads = (workerThreads + acceptors - 1) / acceptors;
+		int queuedClients = (maxQueuedClients + acceptors - 1) / acceptors;
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queuedClients), runnable -> {
+					Thread thread = new Thread(runnable);
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Gives client worker to thread pool of acceptor if admission control
+	 * admits it, otherwise client is rejected.
+	 * 
+	 * @param worker
+	 *            Client worker.
+	 * @param acceptor
+	 *            Acceptor that accepted client.
+	 */
+
+	private void submit(ClientWorker worker, AcceptorThread acceptor) {
+		String rejection = admission.admit(worker.csocket.getInetAddress());
+		if (rejection != null) {
+			admission.reject(worker.csocket, rejection);
+			return;
+		}
+
+		worker.admitted = true;
+		worker.queuedAt = System.nanoTime();
+		worker.acceptor = acceptor;
+		try {
+			acceptor.threadPool.execute(worker);
+		} catch (RejectedExecutionException e) {
+			worker.leave();
+			admission.reject(worker.csocket, AdmissionControl.queueFull);
+		}
 	}
 
 	/**
@@ -212,7 +470,11 @@ public class SmartHttpServer {
 	}
 
 	/**
-	 * Stops server from running.
+	 * Stops server gracefully. New clients aren't accepted anymore and idle
+	 * kept alive connections are closed, while requests in progress are
+	 * finished and their connections closed after response. Requests that
+	 * aren't finished before shutdown timeout are aborted. Numbers of drained
+	 * and aborted requests are reported.
 	 */
 
 	protected synchronized void stop() {
@@ -221,12 +483,80 @@ public class SmartHttpServer {
 		}
 
 		serverRunning = false;
-		threadPool.shutdown();
+		for (AcceptorThread acceptor : acceptorThreads) {
+			acceptor.closeListener();
+		}
+
+		for (AcceptorThread acceptor : acceptorThreads) {
+			acceptor.threadPool.shutdown();
+		}
+		for (ClientWorker worker : activeWorkers) {
+			worker.closeIfIdle();
+		}
+
+		boolean drained = true;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeout);
 		try {
-			serverSocket.close();
-		} catch (IOException e) {
-			System.out.println("Couldn't close server socket.");
+			for (AcceptorThread acceptor : acceptorThreads) {
+				drained &= acceptor.threadPool.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+		} catch (InterruptedException e) {
+			drained = false;
+		}
+
+		int aborted = 0;
+		if (!drained) {
+			// Connections are closed before workers are interrupted, so interrupted request isn't drained.
+			for (ClientWorker worker : activeWorkers) {
+				if (worker.abort()) {
+					aborted++;
+				}
+			}
+			for (AcceptorThread acceptor : acceptorThreads) {
+				for (Runnable queued : acceptor.threadPool.shutdownNow()) {
+					((ClientWorker) queued).abort();
+					aborted++;
+				}
+			}
+		}
+
+		acceptorThreads.clear();
+		System.out.println("Server stopped.");
+		System.out.printf("Drained %d requests, aborted %d requests.%n", drainedRequests.get(), aborted);
+		accessLog.close();
+	}
+
+	/**
+	 * Thread that accepts clients and gives them to its own group of worker
+	 * threads. Server runs more acceptors when single thread can't accept
+	 * clients fast enough.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	protected abstract class AcceptorThread extends Thread {
+		/**
+		 * Worker threads of acceptor.
+		 */
+		private ExecutorService threadPool;
+
+		/**
+		 * Constructor that sets worker threads of acceptor.
+		 * 
+		 * @param threadPool
+		 *            Worker threads of acceptor.
+		 */
+
+		protected AcceptorThread(ExecutorService threadPool) {
+			this.threadPool = threadPool;
 		}
+
+		/**
+		 * Closes listening socket so no new clients are accepted.
+		 */
+
+		protected abstract void closeListener();
 	}
 
 	/**
@@ -237,43 +567,347 @@ public class SmartHttpServer {
 	 *
 	 */
 
-	protected class ServerThread extends Thread {
+	protected class ServerThread extends AcceptorThread {
+		/**
+		 * Server socket, shared with other acceptors if SO_REUSEPORT isn't
+		 * supported.
+		 */
+		private ServerSocket serverSocket;
+
+		/**
+		 * Constructor that sets server socket and worker threads.
+		 * 
+		 * @param serverSocket
+		 *            Server socket.
+		 * @param threadPool
+		 *            Worker threads of acceptor.
+		 */
+
+		public ServerThread(ServerSocket serverSocket, ExecutorService threadPool) {
+			super(threadPool);
+			this.serverSocket = serverSocket;
+		}
+
 		@Override
 		public void run() {
+			while (serverRunning) {
+				Socket client = null;
+				try {
+					client = serverSocket.getChannel().accept().socket();
+				} catch (Exception e) {
+					if (!serverRunning) {
+						break;
+					}
+
+					System.out.println("Couldn't accept client.");
+					continue;
+				}
+
+				metrics.connectionOpened();
+				submit(new ClientWorker(client, new HttpRequestParser(maxHeaderSize, maxHeaderCount)), this);
+			}
+		}
+
+		@Override
+		protected void closeListener() {
 			try {
-				serverSocket = new ServerSocket();
-				serverSocket.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+				serverSocket.close();
 			} catch (IOException e) {
-				System.out.println("Error while creating server socket.");
+				System.out.println("Couldn't close server socket.");
+			}
+		}
+	}
+
+	/**
+	 * Server thread that uses single {@link Selector} to accept clients and read
+	 * their request headers without blocking. Only when whole header has
+	 * arrived connection is switched to blocking mode and handed to
+	 * {@link ClientWorker}, so idle or slow clients don't occupy worker
+	 * threads.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	protected class EventLoopThread extends AcceptorThread {
+		/**
+		 * Time in milliseconds between two checks for idle connections.
+		 */
+		private static final int idleCheckInterval = 1000;
+		/**
+		 * Server channel, shared with other acceptors if SO_REUSEPORT isn't
+		 * supported.
+		 */
+		private ServerSocketChannel serverChannel;
+		/**
+		 * Selector.
+		 */
+		private volatile Selector selector;
+		/**
+		 * Kept alive connections that workers returned to event loop.
+		 */
+		private Queue<ClientConnection> resumed = new ConcurrentLinkedQueue<>();
+		/**
+		 * Time in milliseconds of last check for idle connections.
+		 */
+		private long lastIdleCheck = System.currentTimeMillis();
+
+		/**
+		 * Constructor that sets server channel and worker threads.
+		 * 
+		 * @param serverChannel
+		 *            Non-blocking server channel.
+		 * @param threadPool
+		 *            Worker threads of acceptor.
+		 */
+
+		public EventLoopThread(ServerSocketChannel serverChannel, ExecutorService threadPool) {
+			super(threadPool);
+			this.serverChannel = serverChannel;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Selector selector = Selector.open();
+				serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				this.selector = selector;
+			} catch (IOException e) {
+				if (!serverRunning) {
+					return;
+				}
+				System.out.println("Error while creating selector.");
 				System.exit(0);
 			}
-			System.out.printf("Server successfully started.%n");
 
-			while (true) {
-				synchronized (SmartHttpServer.this) {
-					if (!serverRunning) {
-						System.out.println("Server stopped.");
-						break;
+			List<SelectionKey> completed = new ArrayList<>();
+			while (serverRunning) {
+				try {
+					selector.select(idleCheckInterval);
+				} catch (IOException e) {
+					System.out.println("Event loop couldn't select channels.");
+					continue;
+				}
+
+				registerResumed(completed);
+				closeIdle();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable() && read(key)) {
+						completed.add(key);
 					}
 				}
 
-				Socket client = null;
+				if (!completed.isEmpty()) {
+					dispatch(completed);
+					completed.clear();
+				}
+			}
+
+			// Connections waiting for next request are closed, others are closed by workers.
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() != null) {
+					close(key);
+				}
+			}
+			ClientConnection connection;
+			while ((connection = resumed.poll()) != null) {
+				metrics.connectionClosed();
 				try {
-					client = serverSocket.accept();
-				} catch (Exception e) {
-					synchronized (SmartHttpServer.this) {
-						if (!serverRunning) {
-							System.out.println("Server stopped.");
-							return;
-						}
+					connection.channel.close();
+				} catch (IOException ignorable) {
+				}
+			}
+
+			try {
+				selector.close();
+				serverChannel.close();
+			} catch (IOException ignorable) {
+			}
+		}
+
+		@Override
+		protected void closeListener() {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				System.out.println("Couldn't close server socket.");
+			}
+
+			// Event loop that is blocked while waiting for channels notices that server stopped.
+			Selector selector = this.selector;
+			if (selector != null) {
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Returns kept alive connection to event loop which waits for its next
+		 * request.
+		 * 
+		 * @param connection
+		 *            Client's connection.
+		 */
+
+		public void resume(ClientConnection connection) {
+			resumed.add(connection);
+			selector.wakeup();
+		}
+
+		/**
+		 * Registers connections returned by workers. If pipelined bytes
+		 * already hold whole request connection is immediately dispatched
+		 * again.
+		 * 
+		 * @param completed
+		 *            Keys of connections with complete headers.
+		 */
+
+		private void registerResumed(List<SelectionKey> completed) {
+			ClientConnection connection;
+			while ((connection = resumed.poll()) != null) {
+				connection.lastActive = System.currentTimeMillis();
+				try {
+					connection.channel.configureBlocking(false);
+					SelectionKey key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+					if (connection.scan()) {
+						key.cancel();
+						completed.add(key);
+					}
+				} catch (IOException e) {
+					metrics.connectionClosed();
+					try {
+						connection.channel.close();
+					} catch (IOException ignorable) {
 					}
+				}
+			}
+		}
 
-					System.out.println("Couldn't accept client.");
+		/**
+		 * Closes connections that were idle longer than keep alive timeout.
+		 */
+
+		private void closeIdle() {
+			long now = System.currentTimeMillis();
+			if (now - lastIdleCheck < idleCheckInterval) {
+				return;
+			}
+
+			lastIdleCheck = now;
+			for (SelectionKey key : selector.keys()) {
+				ClientConnection connection = (ClientConnection) key.attachment();
+				if (connection != null && key.isValid() && now - connection.lastActive > keepAliveTimeout * 1000L) {
+					close(key);
+				}
+			}
+		}
+
+		/**
+		 * Accepts new client and registers it for reading. Other acceptors
+		 * that share server channel may have already accepted it.
+		 */
+
+		private void accept() {
+			try {
+				SocketChannel client = serverChannel.accept();
+				if (client == null) {
+					return;
+				}
+
+				metrics.connectionOpened();
+				client.configureBlocking(false);
+				client.register(selector, SelectionKey.OP_READ, new ClientConnection(client,
+						new HttpRequestParser(maxHeaderSize, maxHeaderCount)));
+			} catch (IOException e) {
+				System.out.println("Couldn't accept client.");
+			}
+		}
+
+		/**
+		 * Reads available bytes from client. If whole header was read key is
+		 * cancelled so channel can be given to worker.
+		 * 
+		 * @param key
+		 *            Selection key of client.
+		 * @return True if whole header was read, false otherwise.
+		 */
+
+		private boolean read(SelectionKey key) {
+			SocketChannel client = (SocketChannel) key.channel();
+			ClientConnection connection = (ClientConnection) key.attachment();
+
+			try {
+				int readBytes = client.read(connection.buffer);
+				if (readBytes == -1) {
+					close(key);
+					return false;
+				}
+
+				connection.lastActive = System.currentTimeMillis();
+				if (connection.scan()) {
+					key.cancel();
+					return true;
+				}
+			} catch (IOException e) {
+				close(key);
+			}
+
+			return false;
+		}
+
+		/**
+		 * Switches channels with complete headers back to blocking mode and
+		 * submits them to worker threads.
+		 * 
+		 * @param keys
+		 *            Cancelled keys of channels with complete headers.
+		 */
+
+		private void dispatch(List<SelectionKey> keys) {
+			try {
+				// Flushes cancelled keys so channels can change blocking mode.
+				selector.selectNow();
+			} catch (IOException ignorable) {
+			}
+
+			for (SelectionKey key : keys) {
+				ClientConnection connection = (ClientConnection) key.attachment();
+				try {
+					connection.channel.configureBlocking(true);
+				} catch (IOException e) {
+					System.out.println("Couldn't switch client to blocking mode.");
+					close(key);
 					continue;
 				}
 
-				ClientWorker cw = new ClientWorker(client);
-				threadPool.submit(cw);
+				submit(new ClientWorker(connection), this);
+			}
+		}
+
+		/**
+		 * Closes client's channel.
+		 * 
+		 * @param key
+		 *            Selection key of client.
+		 */
+
+		private void close(SelectionKey key) {
+			metrics.connectionClosed();
+			key.cancel();
+			try {
+				key.channel().close();
+			} catch (IOException ignorable) {
 			}
 		}
 	}
@@ -297,22 +931,90 @@ public class SmartHttpServer {
 		address = properties.getProperty("server.address");
 		port = Integer.parseInt(properties.getProperty("server.port"));
 		workerThreads = Integer.parseInt(properties.getProperty("server.workerThreads"));
+		eventLoop = Boolean.parseBoolean(properties.getProperty("server.eventLoop", "false"));
+		acceptors = Integer.parseInt(properties.getProperty("server.acceptors", "1"));
+		virtualThreads = Boolean.parseBoolean(properties.getProperty("server.virtualThreads", "false"));
+		keepAliveTimeout = Integer.parseInt(properties.getProperty("server.keepAliveTimeout", "5"));
+		maxKeepAliveRequests = Integer.parseInt(properties.getProperty("server.maxKeepAliveRequests", "100"));
+		maxHeaderSize = Integer.parseInt(properties.getProperty("server.maxHeaderSize", "8192"));
+		maxHeaderCount = Integer.parseInt(properties.getProperty("server.maxHeaderCount", "100"));
+		responseBufferSize = Integer.parseInt(properties.getProperty("server.responseBufferSize",
+				Integer.toString(RequestContext.defaultBufferSize)));
 		documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
 		sessionTimeout = Integer.parseInt(properties.getProperty("session.timeout"));
+		maxQueuedClients = Integer.parseInt(properties.getProperty("server.maxQueuedClients", "256"));
+		// Virtual threads aren't scarce, so by default only thread pool limits clients.
+		int maxClients = virtualThreads ? 0 : workerThreads + maxQueuedClients;
+		long maxQueueTime = Long.parseLong(properties.getProperty("server.maxQueueTime", "0"));
+		// Idle kept alive connection holds pool thread, so clients queued behind it would be shed.
+		if (!eventLoop && !virtualThreads && maxQueueTime > 0
+				&& TimeUnit.SECONDS.toMillis(keepAliveTimeout) >= maxQueueTime) {
+			throw new IllegalArgumentException(
+					"Keep-alive timeout has to be shorter than maximum queue time without event loop.");
+		}
+		shutdownTimeout = Long.parseLong(properties.getProperty("server.shutdownTimeout", "10000"));
+		admission = new AdmissionControl(
+				AdmissionControl.Policy
+						.valueOf(properties.getProperty("server.overloadPolicy", "REJECT").trim().toUpperCase()),
+				Integer.parseInt(properties.getProperty("server.retryAfter", "1")),
+				Integer.parseInt(properties.getProperty("server.maxClients", Integer.toString(maxClients))),
+				Integer.parseInt(properties.getProperty("server.maxClientsPerAddress", "0")),
+				maxQueueTime, metrics);
+
+		String logFile = properties.getProperty("server.logFile");
+		accessLog = new AccessLog(
+				AccessLog.Level.valueOf(properties.getProperty("server.logLevel", "INFO").trim().toUpperCase()),
+				Double.parseDouble(properties.getProperty("server.logSampleRate", "1")),
+				logFile == null ? null : Paths.get(logFile.trim()),
+				Long.parseLong(properties.getProperty("server.logMaxFileSize", "10485760")),
+				Integer.parseInt(properties.getProperty("server.logMaxFiles", "5")),
+				Integer.parseInt(properties.getProperty("server.logBufferSize", "8192")));
+		sessions = new SessionStore(sessionTimeout, accessLog);
 
 		try (InputStream inputStream = Files.newInputStream(Paths.get(properties.getProperty("server.mimeConfig")),
 				StandardOpenOption.READ)) {
 			Properties mimeProperties = new Properties();
 			mimeProperties.load(inputStream);
 			for (Object key : mimeProperties.keySet()) {
-				mimeTypes.put((String) key, mimeProperties.getProperty((String) key));
+				if (!((String) key).startsWith(ResponseCompression.propertyPrefix)) {
+					mimeTypes.put((String) key, mimeProperties.getProperty((String) key));
+				}
 			}
+			compression = new ResponseCompression(mimeProperties);
 		} catch (IOException e) {
 			System.out.println("Couldn't open mime properties.");
 			System.exit(0);
 		}
 
 		loadWorkers(Paths.get(properties.getProperty("server.workers")));
+		extWorkers = new ExtWorkerRegistry(extWorkersPackage, workerThreads, maxUnknownExtWorkers);
+
+		long staticCacheSize = Long.parseLong(properties.getProperty("server.staticCacheSize", "0"));
+		if (staticCacheSize > 0) {
+			long maxFileSize = Long.parseLong(properties.getProperty("server.staticCacheMaxFileSize", "1048576"));
+			staticCache = new StaticFileCache(documentRoot, mimeTypes, compression, staticCacheSize,
+					maxFileSize);
+		}
+
+		int scriptCacheSize = Integer.parseInt(properties.getProperty("server.scriptCacheSize", "0"));
+		if (scriptCacheSize > 0) {
+			scriptCache = new ScriptCache(scriptCacheSize);
+		}
+
+		long outputCacheSize = Long.parseLong(properties.getProperty("server.scriptOutputCacheSize", "0"));
+		if (outputCacheSize > 0) {
+			outputCache = new ScriptOutputCache(outputCacheSize,
+					Integer.parseInt(properties.getProperty("server.scriptOutputCacheMaxSize", "262144")));
+		}
+
+		String metricsPath = properties.getProperty("server.metricsPath");
+		if (metricsPath != null) {
+			if (workersMap.containsKey(metricsPath.trim())) {
+				System.out.println("Duplicate path!");
+				System.exit(0);
+			}
+			workersMap.put(metricsPath.trim(), new WorkerPool(new MetricsWorker(metrics), workerThreads));
+		}
 	}
 
 	/**
@@ -344,7 +1046,7 @@ public class SmartHttpServer {
 				}
 
 				Class<?> referenceToClass = this.getClass().getClassLoader().loadClass(fqcn);
-				workersMap.put(path, (IWebWorker) referenceToClass.newInstance());
+				workersMap.put(path, new WorkerPool((IWebWorker) referenceToClass.newInstance(), workerThreads));
 			}
 		} catch (IOException e) {
 			System.out.println("Couldn't open worker properties.");
@@ -356,6 +1058,44 @@ public class SmartHttpServer {
 		}
 	}
 
+	/**
+	 * Finds value of cookie with given name. Quotes around value are
+	 * removed. Package-private so cookie handling can be benchmarked.
+	 * 
+	 * @param cookies
+	 *            Value of Cookie field, can be null.
+	 * @param name
+	 *            Cookie name.
+	 * @return Cookie value, or null if cookie wasn't sent.
+	 */
+
+	static String findCookie(String cookies, String name) {
+		if (cookies == null) {
+			return null;
+		}
+
+		int start = 0;
+		while (start < cookies.length()) {
+			int end = cookies.indexOf(';', start);
+			if (end < 0) {
+				end = cookies.length();
+			}
+
+			int equals = cookies.indexOf('=', start);
+			if (equals > 0 && equals < end && cookies.substring(start, equals).trim().equals(name)) {
+				String value = cookies.substring(equals + 1, end).trim();
+				if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+					value = value.substring(1, value.length() - 1);
+				}
+				return value;
+			}
+
+			start = end + 1;
+		}
+
+		return null;
+	}
+
 	/**
 	 * Client worker that processes client's request using
 	 * {@link RequestContext}.
@@ -372,7 +1112,7 @@ public class SmartHttpServer {
 		/**
 		 * Input stream.
 		 */
-		private PushbackInputStream istream;
+		private InputStream istream;
 		/**
 		 * Output stream.
 		 */
@@ -405,10 +1145,6 @@ public class SmartHttpServer {
 		 * Session ID.
 		 */
 		private String SID;
-		/**
-		 * Buffer size.
-		 */
-		private static final int bufferSize = 4096;
 		/**
 		 * Bad request status number.
 		 */
@@ -418,92 +1154,411 @@ public class SmartHttpServer {
 		 */
 		private static final int forbidden = 403;
 		/**
-		 * File not found status number.
+		 * File not found status number.
+		 */
+		private static final int notFound = 404;
+		/**
+		 * Partial content status number.
+		 */
+		private static final int partialContent = 206;
+		/**
+		 * Not modified status number.
+		 */
+		private static final int notModified = 304;
+		/**
+		 * Range not satisfiable status number.
+		 */
+		private static final int rangeNotSatisfiable = 416;
+		/**
+		 * Internal server error status number.
+		 */
+		private static final int internalServerError = 500;
+		/**
+		 * Request header too large status number.
+		 */
+		private static final int headerTooLarge = 431;
+		/**
+		 * Requested context.
+		 */
+		private RequestContext context;
+		/**
+		 * Parser of request header.
+		 */
+		private HttpRequestParser parser;
+		/**
+		 * Buffer with bytes read from client that weren't parsed yet, used
+		 * only by blocking connections.
+		 */
+		private ByteBuffer buffer;
+		/**
+		 * Flag that tells if header of current request was read.
+		 */
+		private boolean requestRead;
+		/**
+		 * Connection state from event loop, or null if client was accepted by
+		 * blocking server thread.
+		 */
+		private ClientConnection connection;
+		/**
+		 * Acceptor whose worker threads serve client.
+		 */
+		private AcceptorThread acceptor;
+		/**
+		 * Number of requests served on this connection.
+		 */
+		private int servedRequests;
+		/**
+		 * Flag that tells if connection stays open after current response.
+		 */
+		private boolean keepAlive;
+		/**
+		 * Route of current request reported to server metrics.
+		 */
+		private String route;
+		/**
+		 * Content coding accepted by client for current request, or null.
+		 */
+		private String contentEncoding;
+		/**
+		 * Flag that tells if client holds place given by admission control.
+		 */
+		private boolean admitted;
+		/**
+		 * Time in nanoseconds when client worker was given to thread pool.
+		 */
+		private long queuedAt;
+		/**
+		 * State of client worker, busy, idle or closed.
+		 */
+		private AtomicInteger state = new AtomicInteger(busy);
+		/**
+		 * State of worker that serves request.
+		 */
+		private static final int busy = 0;
+		/**
+		 * State of worker that waits for next request on kept alive
+		 * connection.
+		 */
+		private static final int idle = 1;
+		/**
+		 * State of worker whose connection was closed by stopping server.
+		 */
+		private static final int closed = 2;
+
+		/**
+		 * Constructor that gets client's socket.
+		 * 
+		 * @param csocket
+		 *            Client's socket.
+		 */
+
+		public ClientWorker(Socket csocket) {
+			super();
+			if (csocket == null) {
+				throw new IllegalArgumentException();
+			}
+
+			this.csocket = csocket;
+		}
+
+		/**
+		 * Constructor that gets client's socket whose requests are read in
+		 * blocking mode.
+		 * 
+		 * @param csocket
+		 *            Client's socket.
+		 * @param parser
+		 *            Parser of request header.
+		 */
+
+		public ClientWorker(Socket csocket, HttpRequestParser parser) {
+			this(csocket);
+
+			this.parser = parser;
+			buffer = ByteBuffer.allocate(readBufferSize);
+			buffer.limit(0);
+			// Worker waits for first request like for any other.
+			state.set(idle);
+		}
+
+		/**
+		 * Constructor that gets connection from event loop whose request
+		 * header was already read.
+		 * 
+		 * @param connection
+		 *            Client's connection.
+		 */
+
+		public ClientWorker(ClientConnection connection) {
+			this(connection.channel.socket());
+
+			this.connection = connection;
+			this.parser = connection.parser;
+			this.requestRead = true;
+			this.servedRequests = connection.servedRequests;
+		}
+
+		@Override
+		public void run() {
+			activeWorkers.add(this);
+			try {
+				if (admission.isExpired(queuedAt)) {
+					leave();
+					admission.reject(csocket, AdmissionControl.queueTime);
+					return;
+				}
+				serve();
+			} finally {
+				leave();
+				activeWorkers.remove(this);
+			}
+		}
+
+		/**
+		 * Closes connection if worker waits for next request on it. Used by
+		 * stopping server.
 		 */
-		private static final int notFound = 404;
+
+		private void closeIfIdle() {
+			if (state.compareAndSet(idle, closed)) {
+				abort();
+			}
+		}
+
 		/**
-		 * Internal server error status number.
+		 * Closes connection regardless of request in progress. Used by
+		 * stopping server.
+		 * 
+		 * @return True if request was in progress, false otherwise.
 		 */
-		private static final int internalServerError = 500;
+
+		private boolean abort() {
+			boolean wasBusy = state.getAndSet(closed) == busy;
+			try {
+				csocket.close();
+			} catch (IOException ignorable) {
+			}
+			return wasBusy;
+		}
+
 		/**
-		 * Requested context.
+		 * Releases place that admission control gave to client.
 		 */
-		private RequestContext context;
+
+		private void leave() {
+			if (admitted) {
+				admitted = false;
+				admission.release(csocket.getInetAddress());
+			}
+		}
 
 		/**
-		 * Constructor that gets client's socket.
+		 * Admits client again when its next request was read, because it left
+		 * admission control while it waited for request. Client that isn't
+		 * admitted is rejected.
 		 * 
-		 * @param csocket
-		 *            Client's socket.
+		 * @return True if client is admitted, false if it was rejected.
 		 */
 
-		public ClientWorker(Socket csocket) {
-			super();
-			if (csocket == null) {
-				throw new IllegalArgumentException();
+		private boolean enter() {
+			if (admitted) {
+				return true;
 			}
 
-			this.csocket = csocket;
+			String rejection = admission.admit(csocket.getInetAddress());
+			if (rejection != null) {
+				admission.reject(csocket, rejection);
+				return false;
+			}
+
+			admitted = true;
+			return true;
 		}
 
-		@Override
-		public void run() {
+		/**
+		 * Serves requests of client until connection is closed or returned to
+		 * event loop.
+		 */
+
+		private void serve() {
 			try {
-				istream = new PushbackInputStream(csocket.getInputStream());
+				if (connection == null) {
+					istream = csocket.getInputStream();
+					csocket.setSoTimeout(keepAliveTimeout * 1000);
+				}
 				ostream = csocket.getOutputStream();
 			} catch (IOException e) {
 				System.out.println("Client worker: couldn't open streams.");
+				closeSocket();
 				return;
 			}
 
-			List<String> request = readRequest();
-			if (request.size() < 1) {
-				error(badRequest, "Bad request");
-				return;
+			while (true) {
+				if (!requestRead) {
+					// Client waiting for request doesn't hold place given by admission control.
+					leave();
+					if (!readRequest()) {
+						break;
+					}
+				}
+				if (!enter()) {
+					return;
+				}
+				if (!state.compareAndSet(idle, busy) && state.get() == closed) {
+					// Connection was closed by stopping server while worker waited.
+					break;
+				}
+				if (accessLog.isEnabled(AccessLog.Level.DEBUG)) {
+					accessLog.log(AccessLog.Level.DEBUG,
+							"Received request:" + System.lineSeparator() + parser.getHeaderText());
+				}
+
+				long start = System.nanoTime();
+				serveRequest();
+				servedRequests++;
+				boolean sent = finishResponse();
+				long latency = System.nanoTime() - start;
+				int statusCode = context == null ? internalServerError : context.getStatusCode();
+				long bytesSent = context == null ? 0 : context.getBytesWritten();
+				metrics.record(route, statusCode, bytesSent, latency);
+				String requestLine = parser.getRequestLine();
+				accessLog.access(csocket.getInetAddress().getHostAddress(), requestLine == null ? "-" : requestLine,
+						statusCode, bytesSent, latency);
+				// Request aborted by stopping server already left busy state and isn't drained.
+				if (state.compareAndSet(busy, idle) && !serverRunning) {
+					drainedRequests.incrementAndGet();
+				}
+				if (!sent || !keepAlive || !serverRunning) {
+					break;
+				}
+
+				resetRequest();
+				if (connection != null) {
+					leave();
+					// Event loop waits for next request so thread isn't held by idle client.
+					connection.servedRequests = servedRequests;
+					((EventLoopThread) acceptor).resume(connection);
+					return;
+				}
+
+				if (!serverRunning) {
+					break;
+				}
 			}
 
-			String firstLine = request.get(0);
-			String[] temp = firstLine.split(" ");
-			if (temp.length != 3) {
-				error(badRequest, "Bad request");
+			closeSocket();
+		}
+
+		/**
+		 * Serves single request that was read from client.
+		 */
+
+		private void serveRequest() {
+			keepAlive = false;
+			contentEncoding = null;
+			route = ServerMetrics.otherRoute;
+			if (parser.isTooLarge()) {
+				error(headerTooLarge, "Request header too large");
 				return;
 			}
 
-			method = temp[0];
-			String requestedPath = temp[1];
-			version = temp[2];
-			if (!method.toUpperCase().equals("GET")
-					|| (!version.toUpperCase().equals("HTTP/1.0") && !version.toUpperCase().equals("HTTP/1.1"))) {
+			method = parser.getMethod();
+			String requestedPath = parser.getTarget();
+			version = parser.getVersion();
+			if (method == null || !method.equalsIgnoreCase("GET")
+					|| (!version.equalsIgnoreCase("HTTP/1.0") && !version.equalsIgnoreCase("HTTP/1.1"))) {
 				error(badRequest, "Bad request");
 				return;
 			}
 
-			checkSession(request);
+			keepAlive = checkKeepAlive();
+			contentEncoding = compression.negotiate(parser.getAcceptEncoding());
 
-			String domain = getDomain(request);
+			checkSession();
+
+			String domain = getDomain();
 			outputCookies.add(new RCCookie("sid", SID, null, domain, "/"));
 
-			String[] pathAndParameters = requestedPath.split("\\?");
+			int queryStart = requestedPath.indexOf('?');
+			String urlPath = queryStart < 0 ? requestedPath : requestedPath.substring(0, queryStart);
 
-			if (!parseParameters(pathAndParameters)) {
+			if (queryStart >= 0 && !parseParameters(requestedPath.substring(queryStart + 1))) {
 				error(badRequest, "Bad request");
 				return;
 			}
 
-			if (checkForbidden(pathAndParameters[0])) {
+			if (checkForbidden(urlPath)) {
 				error(forbidden, "Forbidden");
 				return;
 			}
 
 			try {
-				internalDispatchRequest(pathAndParameters[0], true);
+				internalDispatchRequest(urlPath, true);
 			} catch (Exception e1) {
 				error(notFound, "File not found");
-				return;
 			}
+		}
+
+		/**
+		 * Checks if client wants connection to stay open after response.
+		 * HTTP/1.1 connections are persistent unless client sends
+		 * "Connection: close". Connection is also closed once it served
+		 * maximum number of requests or if server is stopping.
+		 * 
+		 * @return True if connection stays open, false otherwise.
+		 */
+
+		private boolean checkKeepAlive() {
+			if (!version.equalsIgnoreCase("HTTP/1.1") || !serverRunning
+					|| servedRequests + 1 >= maxKeepAliveRequests) {
+				return false;
+			}
+
+			String connectionField = parser.getConnection();
+			return connectionField == null || !connectionField.equalsIgnoreCase("close");
+		}
+
+		/**
+		 * Finishes response so client can tell where it ends.
+		 * 
+		 * @return True if response was sent, false otherwise.
+		 */
 
+		private boolean finishResponse() {
 			try {
+				if (context != null) {
+					context.finish();
+				}
 				ostream.flush();
+				return true;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Clears state of previous request so next request on same connection
+		 * starts clean.
+		 */
+
+		private void resetRequest() {
+			parser.reset();
+			requestRead = false;
+			context = null;
+			SID = null;
+			permPrams = null;
+			params = new HashMap<String, String>();
+			tempParams = new HashMap<String, String>();
+			outputCookies = new ArrayList<RequestContext.RCCookie>();
+		}
+
+		/**
+		 * Closes client's socket.
+		 */
+
+		private void closeSocket() {
+			metrics.connectionClosed();
+			try {
 				csocket.close();
 			} catch (IOException e) {
 				System.out.println("Couldn't close client socket.");
@@ -530,97 +1585,34 @@ public class SmartHttpServer {
 		 * Checks if client already has installed session cookie. If it doesn't
 		 * or if session expired new session cookie is made that is sent back to
 		 * client.
-		 * 
-		 * @param request
-		 */
-
-		private void checkSession(List<String> request) {
-			synchronized (clientWorkerMutex) {
-				String sidCandidate = null;
-
-				for (String line : request) {
-					if (!line.startsWith("Cookie:")) {
-						continue;
-					}
-
-					// Extracts sid.
-					if (line.contains("sid")) {
-						String[] temp = line.substring(line.indexOf("sid")).split("=");
-						sidCandidate = temp[1].split(";")[0].trim();
-						// Removes quotes.
-						sidCandidate = sidCandidate.substring(1, sidCandidate.length() - 1);
-						break;
-					}
-				}
-
-				if (sidCandidate == null) {
-					makeCookie();
-					return;
-				}
-
-				SessionMapEntry mapEntry = sessions.get(sidCandidate);
-				if (mapEntry == null || mapEntry.validUntil / 1000 >= System.currentTimeMillis() / 1000) {
-					if (mapEntry != null) {
-						sessions.remove(sidCandidate);
-					}
-
-					makeCookie();
-					return;
-				}
-
-				mapEntry.validUntil = System.currentTimeMillis() / 1000 + (long) sessionTimeout;
-				SID = sidCandidate;
-				permPrams = mapEntry.map;
-			}
-		}
-
-		/**
-		 * Creates new cookie.
 		 */
 
-		private void makeCookie() {
-			Map<String, String> newMap = new ConcurrentHashMap<>();
+		private void checkSession() {
+			String sidCandidate = findCookie(parser.getCookie(), "sid");
 
-			final int sidLength = 20;
-			StringBuilder sb = new StringBuilder(sidLength);
-			for (int i = 0; i < sidLength; i++) {
-				// Generates random uppercase letter.
-				sb.append((char) (sessionRandom.nextInt('Z' - 'A' + 1) + 'A'));
+			SessionStore.Session session = sidCandidate == null ? null : sessions.get(sidCandidate);
+			if (session == null) {
+				session = sessions.create();
 			}
 
-			SID = sb.toString();
-			SessionMapEntry newSession = new SessionMapEntry();
-			newSession.sid = SID;
-			newSession.map = newMap;
-			newSession.validUntil = System.currentTimeMillis() / 1000 + (long) sessionTimeout;
-			sessions.put(new String(newSession.sid), newSession);
-
-			permPrams = newMap;
-			System.out.printf("Created new session cookie with sid: %s%n%n", SID);
+			SID = session.getSid();
+			permPrams = session.getParameters();
 		}
 
 		/**
-		 * Gets domain from client.
+		 * Gets domain from client's Host field without port.
 		 * 
-		 * @param request
-		 *            Request header.
 		 * @return Server domain.
 		 */
 
-		private String getDomain(List<String> request) {
-			for (String line : request) {
-				if (!line.toUpperCase().startsWith("HOST")) {
-					continue;
-				}
-
-				String[] temp = line.split(":");
-				if (temp.length < 2) {
-					error(badRequest, "Invalid host name");
-				}
-				return temp[1].trim();
+		private String getDomain() {
+			String host = parser.getHost();
+			if (host == null || host.isEmpty()) {
+				return address;
 			}
 
-			return address;
+			int colon = host.lastIndexOf(':');
+			return colon > host.lastIndexOf(']') ? host.substring(0, colon) : host;
 		}
 
 		/**
@@ -638,9 +1630,16 @@ public class SmartHttpServer {
 				if (context == null) {
 					context = new RequestContext(ostream, params, permPrams, null);
 					context.setMimeType(mimeTypes.get("html"));
-					context.setWriteLogs(true);
+					context.setAccessLog(accessLog);
+					context.setKeepAlive(keepAlive);
+					context.setBufferSize(responseBufferSize);
+					context.setCompression(compression, contentEncoding);
 				}
 
+				if (!context.isHeaderGenerated()) {
+					context.setStatusCode(statusCode);
+					context.setStatusText(reasonPhrase(statusCode));
+				}
 				context.write((String.format("%d %s%n", statusCode, statusText)));
 
 			} catch (IOException e) {
@@ -649,19 +1648,44 @@ public class SmartHttpServer {
 		}
 
 		/**
-		 * Parses parameters from client's request.
+		 * Gets standard reason phrase of given error status code.
+		 * 
+		 * @param statusCode
+		 *            Status code.
+		 * @return Reason phrase.
+		 */
+
+		private String reasonPhrase(int statusCode) {
+			switch (statusCode) {
+			case badRequest:
+				return "Bad Request";
+			case forbidden:
+				return "Forbidden";
+			case notFound:
+				return "Not Found";
+			case headerTooLarge:
+				return "Request Header Fields Too Large";
+			default:
+				return "Internal Server Error";
+			}
+		}
+
+		/**
+		 * Parses parameters from query string of client's request.
 		 * 
-		 * @param paramString
-		 *            Parameter's string.
+		 * @param query
+		 *            Query string.
 		 * @return True if parameters are valid, false otherwise.
 		 */
 
-		private boolean parseParameters(String[] paramString) {
-			if (paramString.length != 2) {
-				return paramString.length == 1;
+		private boolean parseParameters(String query) {
+			if (query.isEmpty()) {
+				return true;
+			} else if (query.indexOf('?') >= 0) {
+				return false;
 			}
 
-			String[] parameters = paramString[1].split("&");
+			String[] parameters = query.split("&");
 			for (String parameter : parameters) {
 				String[] parMapping = parameter.split("=");
 				if (parMapping.length != 2) {
@@ -675,62 +1699,33 @@ public class SmartHttpServer {
 		}
 
 		/**
-		 * Simple automata that reads header of client's request.
+		 * Reads bytes from client until whole request header is parsed. Bytes
+		 * of pipelined requests that follow header stay in buffer.
 		 * 
-		 * @return Request split in lines.
+		 * @return True if header was read, false if client closed connection
+		 *         or was idle for too long.
 		 */
 
-		private List<String> readRequest() {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int state = 0;
-			l: while (true) {
-				int b = 0;
+		private boolean readRequest() {
+			while (!parser.parse(buffer)) {
+				buffer.compact();
+				int readBytes;
 				try {
-					b = istream.read();
+					readBytes = istream.read(buffer.array(), buffer.position(), buffer.remaining());
 				} catch (IOException e) {
+					// Client was idle for too long or connection broke.
+					return false;
 				}
-				if (b == -1)
-					return null;
-				if (b != 13) {
-					bos.write(b);
-				}
-				switch (state) {
-				case 0:
-					if (b == 13) {
-						state = 1;
-					} else if (b == 10)
-						state = 4;
-					break;
-				case 1:
-					if (b == 10) {
-						state = 2;
-					} else
-						state = 0;
-					break;
-				case 2:
-					if (b == 13) {
-						state = 3;
-					} else
-						state = 0;
-					break;
-				case 3:
-					if (b == 10) {
-						break l;
-					} else
-						state = 0;
-					break;
-				case 4:
-					if (b == 10) {
-						break l;
-					} else
-						state = 0;
-					break;
+				if (readBytes == -1) {
+					return false;
 				}
+
+				buffer.position(buffer.position() + readBytes);
+				buffer.flip();
 			}
-			String request = new String(bos.toByteArray(), StandardCharsets.UTF_8);
-			System.out.printf("Received request:%n%s%n", request);
 
-			return Arrays.asList(request.split("\\R"));
+			requestRead = true;
+			return true;
 		}
 
 		/**
@@ -752,145 +1747,277 @@ public class SmartHttpServer {
 
 			if (context == null) {
 				context = new RequestContext(ostream, params, permPrams, outputCookies, tempParams, this);
-				context.setWriteLogs(true);
+				context.setAccessLog(accessLog);
+				context.setKeepAlive(keepAlive);
+				context.setBufferSize(responseBufferSize);
+				context.setCompression(compression, contentEncoding);
+				context.setChannel(csocket.getChannel());
 			}
 
-			if (workersMap.containsKey(urlPath)) {
-				IWebWorker worker = workersMap.get(urlPath);
+			if (directCall) {
+				route = routeOf(urlPath);
+			}
 
-				try {
-					synchronized (worker) {
-						worker.processRequest(context);
-					}
-				} catch (Exception e) {
-					System.out.printf("Couldn't process request: %s%n%s%n%n", urlPath, e.getMessage());
-					error(internalServerError, "Couldn't process request");
-				}
+			if (workersMap.containsKey(urlPath)) {
+				processRequest(workersMap.get(urlPath), urlPath);
 
 			} else if (urlPath.endsWith(".smscr")) {
-				ByteArrayOutputStream bos = new ByteArrayOutputStream();
-				try (InputStream inputStream = Files.newInputStream(Paths.get(documentRoot.toAbsolutePath() + urlPath),
-						StandardOpenOption.READ)) {
-					byte[] buffer = new byte[bufferSize];
-					while (true) {
-						int readBytes = inputStream.read(buffer);
-						if (readBytes < 1) {
-							break;
-						}
-
-						bos.write(buffer, bos.size(), readBytes);
-					}
+				Path script = Paths.get(documentRoot.toAbsolutePath() + urlPath);
+				// Only output of direct requests depends on nothing but script and parameters.
+				boolean cacheable = directCall && outputCache != null;
+				if (cacheable && serveCachedOutput(script)) {
+					return;
 				}
 
-				String expression = new String(bos.toByteArray(), StandardCharsets.UTF_8);
-				DocumentNode documentNode = null;
+				CompiledScript compiledScript = null;
 				try {
-					documentNode = new SmartScriptParser(expression).getDocumentNode();
+					compiledScript = scriptCache == null ? CompiledScript.compile(ScriptCache.parse(script))
+							: scriptCache.get(script);
 				} catch (SmartScriptParserException ex) {
-					System.out.printf("Couldn't parse script: %s%n%s%n%n", urlPath, ex.getMessage());
+					accessLog.log(AccessLog.Level.WARN, "Couldn't parse script: " + urlPath + " " + ex.getMessage());
 					error(internalServerError, String.format("Couldn't parse script: %s", urlPath));
 					return;
 				}
-				SmartScriptEngine scriptEngine = new SmartScriptEngine(documentNode, context);
+				SmartScriptEngine scriptEngine = new SmartScriptEngine(compiledScript, context);
 				try {
 					scriptEngine.execute();
 				} catch (RuntimeException ex) {
-					System.out.printf("Couldn't execute script: %s%n%s%n%n", urlPath, ex.getMessage());
+					accessLog.log(AccessLog.Level.WARN, "Couldn't execute script: " + urlPath + " " + ex.getMessage());
 					error(internalServerError, String.format("Couldn't execute script: %s", urlPath));
+					return;
+				}
+
+				byte[] output = cacheable ? context.getCapturedBody() : null;
+				if (output != null && context.getCacheTtl() > 0 && !context.isPersistentParametersUsed()
+						&& context.getStatusCode() == 200) {
+					outputCache.put(script, params, context.getMimeType(), output, context.getCacheTtl());
 				}
 
 			} else if (urlPath.startsWith("/ext/")) {
-				Class<?> referenceToClass = this.getClass().getClassLoader()
-						.loadClass("hr.fer.zemris.java.webserver.workers." + urlPath.split("/ext/")[1]);
-				// If more client workers try to access same worker.
-				synchronized (referenceToClass) {
-					try {
-						((IWebWorker) referenceToClass.newInstance()).processRequest(context);
-					} catch (Exception ex) {
-						System.out.printf("Couldn't process request: %s%n%s%n%n", urlPath, ex.getMessage());
-						error(internalServerError, "Couldn't process request");
-					}
+				WorkerPool pool = extWorkers.get(urlPath.substring("/ext/".length()));
+				if (pool == null) {
+					error(notFound, "File not found");
+					return;
 				}
+				processRequest(pool, urlPath);
+
+			} else {
+				serveFile(urlPath);
+			}
+		}
+
+		/**
+		 * Sends cached output of script if there is one for current
+		 * parameters. Cached output is written same as output of script, so it
+		 * is compressed for clients that accept it. Otherwise output of script
+		 * that follows is collected so it can be cached.
+		 * 
+		 * @param script
+		 *            Path to script.
+		 * @return True if cached output was sent, false otherwise.
+		 * @throws IOException
+		 *             If output couldn't be sent.
+		 */
+
+		private boolean serveCachedOutput(Path script) throws IOException {
+			ScriptOutputCache.Entry cached = outputCache.get(script, params);
+			if (cached == null) {
+				context.captureBody(outputCache.getMaxOutputSize());
+				return false;
+			}
+
+			context.setMimeType(cached.getMimeType());
+			context.write(cached.getBody());
+			return true;
+		}
+
+		/**
+		 * Serves static file. File is validated by its entity tag and
+		 * modification time, so client that has current file gets only
+		 * "304 Not Modified", and single byte range of file is served as
+		 * "206 Partial Content".
+		 * 
+		 * @param urlPath
+		 *            Path of file relative to document root.
+		 * @throws IOException
+		 *             If file couldn't be sent.
+		 */
 
+		private void serveFile(String urlPath) throws IOException {
+			StaticFileCache.Entry cached = staticCache == null ? null : staticCache.get(urlPath);
+			Path path = Paths.get(documentRoot.toString() + urlPath);
+			long size;
+			long modified;
+			String mimeType;
+			if (cached != null) {
+				size = cached.getBody().length;
+				modified = cached.getModified();
+				mimeType = cached.getMimeType();
 			} else {
-				Path path = Paths.get(documentRoot.toString() + urlPath);
 				if (!(path.toFile().isFile() && path.toFile().canRead() && urlPath.contains("."))) {
 					error(notFound, String.format("File not found: %s", urlPath));
 					return;
 				}
-
+				size = Files.size(path);
+				modified = Files.getLastModifiedTime(path).toMillis();
 				String fileExtension = urlPath.substring(urlPath.lastIndexOf(".") + 1);
-				context.setMimeType(mimeTypes.get(fileExtension));
-				context.write(Files.readAllBytes(path));
+				mimeType = mimeTypes.getOrDefault(fileExtension, "application/octet-stream");
 			}
-		}
 
-		@Override
-		public void dispatchRequest(String urlPath) throws Exception {
-			internalDispatchRequest(urlPath, false);
-		}
+			String entityTag = ConditionalRequest.entityTag(size, modified);
+			ConditionalRequest conditions = new ConditionalRequest(parser.getIfNoneMatch(),
+					parser.getIfModifiedSince(), parser.getRange(), parser.getIfRange());
+			if (conditions.isNotModified(entityTag, modified)) {
+				context.setStatusCode(notModified);
+				context.setStatusText("Not Modified");
+				context.addHeaderField("ETag", cached == null ? entityTag : cached.getEntityTag(contentEncoding));
+				context.addHeaderField("Last-Modified", ConditionalRequest.formatDate(modified));
+				return;
+			}
 
-	}
+			ConditionalRequest.ByteRange range = conditions.getRange(entityTag, modified, size);
+			if (range != null && !range.isSatisfiable()) {
+				context.setStatusCode(rangeNotSatisfiable);
+				context.setStatusText("Range Not Satisfiable");
+				context.addHeaderField("Content-Range", range.contentRange(size));
+				return;
+			}
 
-	/**
-	 * Thread that every 5 minutes deletes expired sessions.
-	 * 
-	 * @author Mihael Jaić
-	 *
-	 */
+			if (range == null && cached != null) {
+				context.writePrepared(cached.getHeaderFields(contentEncoding), cached.getBody(contentEncoding));
+				return;
+			}
+
+			context.setMimeType(mimeType);
+			context.addHeaderField("ETag", entityTag);
+			context.addHeaderField("Last-Modified", ConditionalRequest.formatDate(modified));
+			context.addHeaderField("Accept-Ranges", "bytes");
+			if (range == null) {
+				context.writeFile(path);
+				return;
+			}
+
+			// Parts of file are sent uncompressed.
+			context.setStatusCode(partialContent);
+			context.setStatusText("Partial Content");
+			context.addHeaderField("Content-Range", range.contentRange(size));
+			if (cached != null) {
+				context.setContentLength(range.getLength());
+				context.write(cached.getBody(), (int) range.getFirst(), (int) range.getLength());
+			} else {
+				context.writeFile(path, range.getFirst(), range.getLength());
+			}
+		}
 
-	private class SessionDeleter extends Thread {
 		/**
-		 * Time that thread spends sleeping until next check for expired
-		 * sessions.
+		 * Processes request with instance of worker taken from given pool.
+		 * 
+		 * @param pool
+		 *            Worker pool.
+		 * @param urlPath
+		 *            Path of request.
 		 */
-		private static final int sleepTime = 300000;
 
-		@Override
-		public void run() {
-			while (true) {
-				try {
-					Thread.sleep(sleepTime);
-				} catch (InterruptedException ignorable) {
+		private void processRequest(WorkerPool pool, String urlPath) {
+			IWebWorker worker = null;
+			try {
+				worker = pool.acquire();
+				worker.processRequest(context);
+			} catch (Exception e) {
+				accessLog.log(AccessLog.Level.WARN, "Couldn't process request: " + urlPath + " " + e.getMessage());
+				error(internalServerError, "Couldn't process request");
+			} finally {
+				if (worker != null) {
+					pool.release(worker);
 				}
+			}
+		}
 
-				boolean deleted = false;
-				Iterator<Entry<String, SessionMapEntry>> it = sessions.entrySet().iterator();
-				while (it.hasNext()) {
-					Map.Entry<String, SessionMapEntry> session = it.next();
-					if (session.getValue().validUntil <= System.currentTimeMillis() / 1000) {
-						System.out.printf("Removing session cookie: %s%n", session.getKey());
-						deleted = true;
-						it.remove();
-					}
-				}
+		/**
+		 * Determines route of given path that is reported to server metrics.
+		 * 
+		 * @param urlPath
+		 *            Path.
+		 * @return Route of path.
+		 */
 
-				if (deleted) {
-					System.out.println("");
-				}
+		private String routeOf(String urlPath) {
+			if (workersMap.containsKey(urlPath)) {
+				return ServerMetrics.workerRoute;
+			} else if (urlPath.endsWith(".smscr")) {
+				return ServerMetrics.scriptRoute;
+			} else if (urlPath.startsWith("/ext/")) {
+				return ServerMetrics.extRoute;
 			}
+
+			return ServerMetrics.staticRoute;
 		}
+
+		@Override
+		public void dispatchRequest(String urlPath) throws Exception {
+			internalDispatchRequest(urlPath, false);
+		}
+
 	}
 
 	/**
-	 * Structure that holds data for session.
+	 * State of connection that is served by event loop. Bytes read from client
+	 * are collected in buffer and given to {@link HttpRequestParser} of
+	 * connection until whole request header is parsed. Bytes that arrive after
+	 * header belong to pipelined requests and stay in buffer for next request.
 	 * 
 	 * @author Mihael Jaić
 	 *
 	 */
 
-	private static class SessionMapEntry {
+	private static class ClientConnection {
 		/**
-		 * Session ID.
+		 * Client channel.
+		 */
+		private SocketChannel channel;
+		/**
+		 * Buffer with bytes that weren't parsed yet.
+		 */
+		private ByteBuffer buffer = ByteBuffer.allocate(readBufferSize);
+		/**
+		 * Parser of request header.
+		 */
+		private HttpRequestParser parser;
+		/**
+		 * Number of requests served on this connection.
+		 */
+		private int servedRequests;
+		/**
+		 * Time in milliseconds when client was last active.
 		 */
-		String sid;
+		private long lastActive = System.currentTimeMillis();
+
 		/**
-		 * Time until session is valid in seconds.
+		 * Constructor that gets client's channel and parser of its requests.
+		 * 
+		 * @param channel
+		 *            Client channel.
+		 * @param parser
+		 *            Parser of request header.
 		 */
-		long validUntil;
+
+		private ClientConnection(SocketChannel channel, HttpRequestParser parser) {
+			this.channel = channel;
+			this.parser = parser;
+		}
+
 		/**
-		 * Map in which parameters are stored for some session.
+		 * Parses newly read bytes.
+		 * 
+		 * @return True if parsing of header is done, false otherwise.
 		 */
-		Map<String, String> map;
+
+		private boolean scan() {
+			buffer.flip();
+			boolean done = parser.parse(buffer);
+			buffer.compact();
+
+			return done;
+		}
 	}
 }
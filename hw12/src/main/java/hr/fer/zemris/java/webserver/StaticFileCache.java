@@ -0,0 +1,584 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of static files from document root. Files are kept in memory together
+ * with header fields that describe them, so cached file is sent without
+ * touching file system. Cache has limited number of bytes it can hold and when
+ * it is full least recently used files are evicted. Directories of document
+ * root are watched by {@link WatchService} and files are removed from cache as
+ * soon as they are changed. If watch service isn't available cached file is
+ * checked by its modification time on every request. Compressible files are
+ * compressed once when they are loaded and their compressed variants are
+ * cached next to them.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class StaticFileCache {
+	/**
+	 * Document root.
+	 */
+	private Path documentRoot;
+	/**
+	 * Mime types map.
+	 */
+	private Map<String, String> mimeTypes;
+	/**
+	 * Settings of response compression, or null if files aren't compressed.
+	 */
+	private ResponseCompression compression;
+	/**
+	 * Maximum number of bytes held by cache.
+	 */
+	private long maxBytes;
+	/**
+	 * Maximum size of single cached file.
+	 */
+	private long maxFileSize;
+	/**
+	 * Number of bytes currently held by cache.
+	 */
+	private long usedBytes;
+	/**
+	 * Cached files in order of access, least recently used first.
+	 */
+	private LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	/**
+	 * Lock that guards entries.
+	 */
+	private final Lock lock = new ReentrantLock();
+	/**
+	 * Number of invalidations so far. File that was read while files were
+	 * invalidated may be stale, so it isn't stored.
+	 */
+	private long generation;
+	/**
+	 * Watch service that reports changed files, or null if it isn't
+	 * available.
+	 */
+	private WatchService watchService;
+	/**
+	 * Header field added to files whose content depends on client's
+	 * Accept-Encoding field.
+	 */
+	private static final String varyField = "Vary: Accept-Encoding\r\n";
+
+	/**
+	 * Constructor that sets attributes and starts watching document root.
+	 * 
+	 * @param documentRoot
+	 *            Document root.
+	 * @param mimeTypes
+	 *            Mime types map.
+	 * @param compression
+	 *            Settings of response compression, or null if files aren't
+	 *            compressed.
+	 * @param maxBytes
+	 *            Maximum number of bytes held by cache.
+	 * @param maxFileSize
+	 *            Maximum size of single cached file.
+	 * @throws IllegalArgumentException
+	 *             If document root or mime types are null.
+	 */
+
+	public StaticFileCache(Path documentRoot, Map<String, String> mimeTypes, ResponseCompression compression,
+			long maxBytes, long maxFileSize) throws IllegalArgumentException {
+		if (documentRoot == null || mimeTypes == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.documentRoot = documentRoot.toAbsolutePath().normalize();
+		this.mimeTypes = mimeTypes;
+		this.compression = compression;
+		this.maxBytes = maxBytes;
+		this.maxFileSize = Math.min(maxFileSize, maxBytes);
+
+		startWatching();
+	}
+
+	/**
+	 * Gets cached file for given url path. If file isn't cached yet it is read
+	 * and stored in cache. Files are cached by their normalized path relative
+	 * to document root, so different url paths of same file share one entry.
+	 * Returns null if file doesn't exist, isn't under document root, can't be
+	 * read or is too large to be cached.
+	 * 
+	 * @param urlPath
+	 *            Path of file relative to document root.
+	 * @return Cached file or null.
+	 */
+
+	public Entry get(String urlPath) {
+		Path path = Paths.get(documentRoot.toString() + urlPath).normalize();
+		if (!path.startsWith(documentRoot)) {
+			return null;
+		}
+
+		Path key = documentRoot.relativize(path);
+		Entry entry;
+		long loadGeneration;
+		lock.lock();
+		try {
+			entry = entries.get(key);
+			loadGeneration = generation;
+		} finally {
+			lock.unlock();
+		}
+
+		if (entry != null && (watchService != null || entry.isValid())) {
+			return entry;
+		}
+
+		entry = load(path);
+		if (entry != null) {
+			put(key, entry, loadGeneration);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Removes all cached files.
+	 */
+
+	public void clear() {
+		lock.lock();
+		try {
+			entries.clear();
+			usedBytes = 0;
+			generation++;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads file at given path.
+	 * 
+	 * @param path
+	 *            Normalized absolute path of file.
+	 * @return Loaded file or null if it can't be cached.
+	 */
+
+	private Entry load(Path path) {
+		String fileName = path.getFileName() == null ? "" : path.getFileName().toString();
+		if (!fileName.contains(".") || !Files.isRegularFile(path) || !Files.isReadable(path)) {
+			return null;
+		}
+
+		try {
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			if (Files.size(path) > maxFileSize) {
+				return null;
+			}
+
+			byte[] body = Files.readAllBytes(path);
+			String extension = fileName.substring(fileName.lastIndexOf(".") + 1);
+			String mimeType = mimeTypes.getOrDefault(extension, "application/octet-stream");
+
+			Entry entry = new Entry(path, mimeType, body, modified);
+			if (compression != null && compression.isCompressible(mimeType, body.length)) {
+				entry.addVariant(ResponseCompression.gzip, compression.compress(body, ResponseCompression.gzip));
+				entry.addVariant(ResponseCompression.deflate, compression.compress(body, ResponseCompression.deflate));
+			}
+
+			return entry;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores file in cache and evicts least recently used files while cache
+	 * holds more bytes than allowed. File isn't stored if it alone holds more
+	 * bytes than allowed or if any file was invalidated since it started
+	 * loading, because change of file could have been reported while it was
+	 * read.
+	 * 
+	 * @param key
+	 *            Normalized path of file relative to document root.
+	 * @param entry
+	 *            Loaded file.
+	 * @param loadGeneration
+	 *            Number of invalidations when file started loading.
+	 */
+
+	private void put(Path key, Entry entry, long loadGeneration) {
+		if (entry.size() > maxBytes) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			if (generation != loadGeneration) {
+				return;
+			}
+
+			Entry old = entries.put(key, entry);
+			if (old != null) {
+				usedBytes -= old.size();
+			}
+			usedBytes += entry.size();
+
+			Iterator<Entry> it = entries.values().iterator();
+			while (usedBytes > maxBytes && it.hasNext()) {
+				usedBytes -= it.next().size();
+				it.remove();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes cached file with given path and all cached files under it if
+	 * path is directory.
+	 * 
+	 * @param key
+	 *            Normalized path relative to document root.
+	 */
+
+	private void invalidate(Path key) {
+		lock.lock();
+		try {
+			generation++;
+			Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Path, Entry> cached = it.next();
+				if (cached.getKey().startsWith(key)) {
+					usedBytes -= cached.getValue().size();
+					it.remove();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Registers all directories of document root with watch service and
+	 * starts thread that invalidates changed files.
+	 */
+
+	private void startWatching() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			register(documentRoot);
+		} catch (IOException e) {
+			System.out.println("Couldn't watch document root, cached files are checked on every request.");
+			watchService = null;
+			return;
+		}
+
+		Thread watcher = new Thread(this::watch);
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Registers given directory and all its subdirectories with watch
+	 * service.
+	 * 
+	 * @param directory
+	 *            Directory.
+	 * @throws IOException
+	 *             If directory couldn't be registered.
+	 */
+
+	private void register(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Waits for file system events and removes changed files from cache.
+	 */
+
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path directory = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					clear();
+					continue;
+				}
+
+				Path changed = directory.resolve((Path) event.context());
+				invalidate(documentRoot.relativize(changed.normalize()));
+
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+					try {
+						register(changed);
+					} catch (IOException ignorable) {
+					}
+				}
+			}
+
+			key.reset();
+		}
+	}
+
+	/**
+	 * Cached static file. Holds file content, its compressed variants and
+	 * header fields that describe them, ready to be sent.
+	 * 
+	 * @author Mihael Jaić
+	 *
+	 */
+
+	public static class Entry {
+		/**
+		 * Path to file.
+		 */
+		private Path path;
+		/**
+		 * Mime type.
+		 */
+		private String mimeType;
+		/**
+		 * File content.
+		 */
+		private byte[] body;
+		/**
+		 * Header fields that describe content.
+		 */
+		private String headerFields;
+		/**
+		 * Time of last modification in milliseconds.
+		 */
+		private long modified;
+		/**
+		 * Entity tag of content.
+		 */
+		private String entityTag;
+		/**
+		 * Gzip variant of content, or null if it isn't cached.
+		 */
+		private byte[] gzipBody;
+		/**
+		 * Header fields that describe gzip variant.
+		 */
+		private String gzipHeaderFields;
+		/**
+		 * Deflate variant of content, or null if it isn't cached.
+		 */
+		private byte[] deflateBody;
+		/**
+		 * Header fields that describe deflate variant.
+		 */
+		private String deflateHeaderFields;
+
+		/**
+		 * Constructor that sets attributes.
+		 * 
+		 * @param path
+		 *            Path to file.
+		 * @param mimeType
+		 *            Mime type.
+		 * @param body
+		 *            File content.
+		 * @param modified
+		 *            Time of last modification in milliseconds.
+		 */
+
+		private Entry(Path path, String mimeType, byte[] body, long modified) {
+			this.path = path;
+			this.mimeType = mimeType;
+			this.body = body;
+			this.modified = modified;
+			this.entityTag = ConditionalRequest.entityTag(body.length, modified);
+			this.headerFields = RequestContext.contentHeaderFields(mimeType, RequestContext.defaultEncoding,
+					body.length) + ConditionalRequest.validatorFields(entityTag, modified);
+		}
+
+		/**
+		 * Adds compressed variant of content. Variant that isn't smaller than
+		 * content isn't kept.
+		 * 
+		 * @param encoding
+		 *            Content coding of variant.
+		 * @param variant
+		 *            Compressed content.
+		 */
+
+		private void addVariant(String encoding, byte[] variant) {
+			if (variant.length >= body.length) {
+				return;
+			}
+
+			String fields = RequestContext.contentHeaderFields(mimeType, RequestContext.defaultEncoding,
+					variant.length) + String.format("Content-Encoding: %s\r\n", encoding)
+					+ ConditionalRequest.validatorFields(ConditionalRequest.entityTag(entityTag, encoding), modified)
+					+ varyField;
+			if (encoding.equals(ResponseCompression.gzip)) {
+				gzipBody = variant;
+				gzipHeaderFields = fields;
+			} else {
+				deflateBody = variant;
+				deflateHeaderFields = fields;
+			}
+
+			if (!headerFields.endsWith(varyField)) {
+				headerFields += varyField;
+			}
+		}
+
+		/**
+		 * Gets number of bytes held by content and its variants.
+		 * 
+		 * @return Size of entry.
+		 */
+
+		private long size() {
+			return body.length + (gzipBody == null ? 0 : gzipBody.length)
+					+ (deflateBody == null ? 0 : deflateBody.length);
+		}
+
+		/**
+		 * Checks if file wasn't modified since it was cached.
+		 * 
+		 * @return True if cached content is still valid, false otherwise.
+		 */
+
+		private boolean isValid() {
+			try {
+				return Files.getLastModifiedTime(path).toMillis() == modified;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Gets mime type.
+		 * 
+		 * @return Mime type.
+		 */
+
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * Gets time of last modification.
+		 * 
+		 * @return Time of last modification in milliseconds.
+		 */
+
+		public long getModified() {
+			return modified;
+		}
+
+		/**
+		 * Gets entity tag of content.
+		 * 
+		 * @return Entity tag.
+		 */
+
+		public String getEntityTag() {
+			return entityTag;
+		}
+
+		/**
+		 * Gets entity tag of content in given content coding.
+		 * 
+		 * @param encoding
+		 *            Content coding accepted by client, or null.
+		 * @return Entity tag of compressed variant if it is cached, entity tag
+		 *         of content otherwise.
+		 */
+
+		public String getEntityTag(String encoding) {
+			return getBody(encoding) == body ? entityTag : ConditionalRequest.entityTag(entityTag, encoding);
+		}
+
+		/**
+		 * Gets file content.
+		 * 
+		 * @return File content.
+		 */
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets header fields that describe content.
+		 * 
+		 * @return Header fields.
+		 */
+
+		public String getHeaderFields() {
+			return headerFields;
+		}
+
+		/**
+		 * Gets content in given content coding.
+		 * 
+		 * @param encoding
+		 *            Content coding accepted by client, or null.
+		 * @return Compressed variant if it is cached, content otherwise.
+		 */
+
+		public byte[] getBody(String encoding) {
+			if (ResponseCompression.gzip.equals(encoding) && gzipBody != null) {
+				return gzipBody;
+			} else if (ResponseCompression.deflate.equals(encoding) && deflateBody != null) {
+				return deflateBody;
+			}
+
+			return body;
+		}
+
+		/**
+		 * Gets header fields that describe content in given content coding.
+		 * 
+		 * @param encoding
+		 *            Content coding accepted by client, or null.
+		 * @return Header fields of compressed variant if it is cached, header
+		 *         fields of content otherwise.
+		 */
+
+		public String getHeaderFields(String encoding) {
+			if (ResponseCompression.gzip.equals(encoding) && gzipBody != null) {
+				return gzipHeaderFields;
+			} else if (ResponseCompression.deflate.equals(encoding) && deflateBody != null) {
+				return deflateHeaderFields;
+			}
+
+			return headerFields;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks {@link IWebWorker} whose single instance can process many requests at
+ * once. Server calls such worker concurrently from all client workers. Workers
+ * without this annotation are never called by more threads at once, server
+ * keeps pool of their instances instead.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ThreadSafe {
+}
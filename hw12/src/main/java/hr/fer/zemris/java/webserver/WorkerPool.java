@@ -0,0 +1,119 @@
+package hr.fer.zemris.java.webserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives out instances of single web worker to client workers. Instance of
+ * worker marked with {@link ThreadSafe} is shared by all client workers. Other
+ * workers are never used by more threads at once, so every client worker
+ * takes its own instance from pool and returns it when request is processed.
+ * New instance is created when pool is empty and at most given number of idle
+ * instances is kept.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+public class WorkerPool {
+	/**
+	 * Shared instance of thread-safe worker, or null if instances are pooled.
+	 */
+	private IWebWorker shared;
+	/**
+	 * Class of pooled worker.
+	 */
+	private Class<? extends IWebWorker> workerClass;
+	/**
+	 * Idle instances.
+	 */
+	private Queue<IWebWorker> idle = new ConcurrentLinkedQueue<>();
+	/**
+	 * Number of idle instances.
+	 */
+	private AtomicInteger idleCount = new AtomicInteger();
+	/**
+	 * Maximum number of idle instances.
+	 */
+	private int maxIdle;
+
+	/**
+	 * Constructor that gets first instance of worker.
+	 * 
+	 * @param worker
+	 *            Instance of worker.
+	 * @param maxIdle
+	 *            Maximum number of idle instances that are kept.
+	 * @throws IllegalArgumentException
+	 *             If worker is null.
+	 */
+
+	public WorkerPool(IWebWorker worker, int maxIdle) throws IllegalArgumentException {
+		if (worker == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.maxIdle = maxIdle;
+		if (isThreadSafe(worker.getClass())) {
+			shared = worker;
+		} else {
+			workerClass = worker.getClass();
+			release(worker);
+		}
+	}
+
+	/**
+	 * Checks if instances of given worker class can be shared by more threads.
+	 * 
+	 * @param workerClass
+	 *            Worker class.
+	 * @return True if class is marked with {@link ThreadSafe}, false otherwise.
+	 */
+
+	public static boolean isThreadSafe(Class<?> workerClass) {
+		return workerClass.isAnnotationPresent(ThreadSafe.class);
+	}
+
+	/**
+	 * Takes instance of worker that can be used by calling thread until it is
+	 * released.
+	 * 
+	 * @return Instance of worker.
+	 * @throws ReflectiveOperationException
+	 *             If new instance couldn't be created.
+	 */
+
+	public IWebWorker acquire() throws ReflectiveOperationException {
+		if (shared != null) {
+			return shared;
+		}
+
+		IWebWorker worker = idle.poll();
+		if (worker == null) {
+			return workerClass.newInstance();
+		}
+
+		idleCount.decrementAndGet();
+		return worker;
+	}
+
+	/**
+	 * Returns instance of worker to pool.
+	 * 
+	 * @param worker
+	 *            Instance taken by {@link #acquire()}.
+	 */
+
+	public void release(IWebWorker worker) {
+		if (shared != null) {
+			return;
+		}
+
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(worker);
+		} else {
+			idleCount.decrementAndGet();
+		}
+	}
+}
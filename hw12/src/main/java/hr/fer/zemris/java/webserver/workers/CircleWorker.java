@@ -10,6 +10,7 @@ import javax.imageio.ImageIO;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ThreadSafe;
 
 /**
  * Web worker that draws red circle and sends data to request context.
@@ -18,6 +19,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  *
  */
 
+@ThreadSafe
 public class CircleWorker implements IWebWorker {
 	/**
 	 * Radius.
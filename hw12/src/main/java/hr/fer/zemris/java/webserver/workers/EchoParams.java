@@ -4,6 +4,7 @@ import java.util.Map;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ThreadSafe;
 
 /**
  * Web worker that gets list of arguments in request context
@@ -13,6 +14,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  *
  */
 
+@ThreadSafe
 public class EchoParams implements IWebWorker {
 
 	@Override
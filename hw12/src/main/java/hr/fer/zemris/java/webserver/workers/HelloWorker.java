@@ -6,6 +6,7 @@ import java.util.Date;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ThreadSafe;
 
 /**
  * Web worker that writes out current time and date and number of characters in
@@ -15,6 +16,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  *
  */
 
+@ThreadSafe
 public class HelloWorker implements IWebWorker {
 
 	@Override
@@ -0,0 +1,46 @@
+package hr.fer.zemris.java.webserver.workers;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ThreadSafe;
+import hr.fer.zemris.java.webserver.ServerMetrics;
+
+/**
+ * Web worker that writes out server metrics collected by {@link ServerMetrics}
+ * in plain text format that can be read by metrics scrapers.
+ * 
+ * @author Mihael Jaić
+ *
+ */
+
+@ThreadSafe
+public class MetricsWorker implements IWebWorker {
+	/**
+	 * Server metrics.
+	 */
+	private ServerMetrics metrics;
+
+	/**
+	 * Constructor that gets server metrics.
+	 * 
+	 * @param metrics
+	 *            Server metrics.
+	 * @throws IllegalArgumentException
+	 *             If metrics are null.
+	 */
+
+	public MetricsWorker(ServerMetrics metrics) throws IllegalArgumentException {
+		if (metrics == null) {
+			throw new IllegalArgumentException();
+		}
+
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		context.setMimeType("text/plain");
+		context.write(metrics.format());
+	}
+
+}
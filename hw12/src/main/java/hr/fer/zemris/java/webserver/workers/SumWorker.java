@@ -2,6 +2,7 @@ package hr.fer.zemris.java.webserver.workers;
 
 import hr.fer.zemris.java.webserver.IWebWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
+import hr.fer.zemris.java.webserver.ThreadSafe;
 
 /**
  * Web worker that gets 2 numbers and adds them. If 2 parameters weren't given
@@ -12,6 +13,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  *
  */
 
+@ThreadSafe
 public class SumWorker implements IWebWorker {
 	/**
 	 * Path to calculation script.
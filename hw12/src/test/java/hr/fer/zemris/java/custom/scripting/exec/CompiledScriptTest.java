@@ -0,0 +1,240 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EmptyStackException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+public class CompiledScriptTest {
+
+	private static CompiledScript compile(String script) {
+		return CompiledScript.compile(new SmartScriptParser(script).getDocumentNode());
+	}
+
+	private static String execute(CompiledScript script, Map<String, String> parameters) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, parameters, new HashMap<>(), null);
+		script.execute(context);
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private static String execute(String script) throws IOException {
+		return execute(compile(script), new HashMap<>());
+	}
+
+	// Echo tag of constants is folded, same tag with operands from parameters is executed.
+	private static void assertFoldedEqualsExecuted(String... elements) throws IOException {
+		StringBuilder constant = new StringBuilder("{$=");
+		StringBuilder parameter = new StringBuilder("{$=");
+		Map<String, String> parameters = new HashMap<>();
+		for (String element : elements) {
+			constant.append(' ').append(element);
+			if (element.startsWith("@") || "+-*/".contains(element)) {
+				parameter.append(' ').append(element);
+			} else {
+				String name = "p" + parameters.size();
+				parameters.put(name, element.replace("\"", ""));
+				parameter.append(" \"").append(name).append("\" 0 @paramGet");
+			}
+		}
+		constant.append(" $}");
+		parameter.append(" $}");
+
+		CompiledScript folded = compile(constant.toString());
+		assertEquals(1, folded.getInstructionCount());
+		assertEquals(execute(compile(parameter.toString()), parameters), execute(folded, new HashMap<>()));
+	}
+
+	@Test
+	public void testText() throws IOException {
+		assertEquals("Just text.\r\n", execute("Just text.\r\n"));
+	}
+
+	@Test
+	public void testEcho() throws IOException {
+		assertEquals("7", execute("{$= 3 4 + $}"));
+		assertEquals("1", execute("{$= 3 4 - $}"));
+		assertEquals("1.3333333333333333", execute("{$= 3 4 / $}"));
+		assertEquals("Infinity", execute("{$= 0 2 / $}"));
+		assertEquals("7.5", execute("{$= 2.5 3 * $}"));
+		assertEquals("0.30000000000000004", execute("{$= 0.1 0.2 + $}"));
+		assertEquals("3.5", execute("{$= \"1.5\" 2 + $}"));
+		assertEquals("ab", execute("{$= \"a\" \"b\" $}"));
+	}
+
+	@Test
+	public void testFunctions() throws IOException {
+		assertEquals("1.0", execute("{$= 90 @sin \"0.0\" @decfmt $}"));
+		assertEquals("3.14", execute("{$= 3.14159 \"0.00\" @decfmt $}"));
+		assertEquals("49", execute("{$= 7 @dup * $}"));
+		assertEquals("ba", execute("{$= \"a\" \"b\" @swap $}"));
+	}
+
+	@Test
+	public void testForLoop() throws IOException {
+		assertEquals("1,2,3,", execute("{$FOR i 1 3 1$}{$= i $},{$END$}"));
+		assertEquals("", execute("{$FOR i 3 1 1$}{$= i $},{$END$}"));
+	}
+
+	@Test
+	public void testNestedLoopsWithSameVariable() throws IOException {
+		assertEquals("561;562;", execute("{$FOR i 1 2 1$}{$FOR i 5 6 1$}{$= i $}{$END$}{$= i $};{$END$}"));
+	}
+
+	@Test
+	public void testParameters() throws IOException {
+		CompiledScript script = compile("{$= \"a\" \"none\" @paramGet $}");
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("a", "5");
+
+		assertEquals("5", execute(script, parameters));
+		assertEquals("none", execute(script, new HashMap<>()));
+	}
+
+	@Test
+	public void testTemporaryParameters() throws IOException {
+		assertEquals("3", execute("{$= 3 \"t\" @tparamSet $}{$= \"t\" 0 @tparamGet $}"));
+		assertEquals("0", execute("{$= 3 \"t\" @tparamSet \"t\" @tparamDel $}{$= \"t\" 0 @tparamGet $}"));
+	}
+
+	@Test
+	public void testPersistentParameters() throws IOException {
+		CompiledScript script = compile("{$= \"count\" \"1\" @pparamGet @dup 1 + \"count\" @pparamSet $}");
+		Map<String, String> persistentParameters = new HashMap<>();
+		RequestContext context = new RequestContext(new ByteArrayOutputStream(), null, persistentParameters,
+				null);
+		script.execute(context);
+		script.execute(context);
+
+		assertEquals("3", persistentParameters.get("count"));
+	}
+
+	@Test
+	public void testUnknownFunctionFailsOnlyWhenExecuted() throws IOException {
+		CompiledScript script = compile("a{$FOR i 1 0 1$}{$= @missing $}{$END$}b");
+		assertEquals("ab", execute(script, new HashMap<>()));
+
+		try {
+			execute("{$= @missing $}");
+			fail();
+		} catch (RuntimeException e) {
+		}
+	}
+
+	@Test
+	public void testBlankEchoIsNotWritten() throws IOException {
+		assertEquals("ab", execute("a{$= \" \" \"  \" $}b"));
+		assertEquals("a 1b", execute("a{$= \" \" 1 $}b"));
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void testMissingOperand() throws IOException {
+		execute("{$= 1 + $}");
+	}
+
+	@Test
+	public void testEngineExecutesCompiledScript() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, new HashMap<>(), new HashMap<>(), null);
+		new SmartScriptEngine(compile("{$FOR i 1 3 1$}{$= i $}{$END$}"), context).execute();
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertEquals("123", response.substring(response.indexOf("\r\n\r\n") + 4));
+	}
+
+	@Test
+	public void testScriptCanBeExecutedMoreTimes() throws IOException {
+		CompiledScript script = compile("{$FOR i 1 3 1$}{$= i 2 * $},{$= 1 2 + @dup $};{$END$}");
+
+		assertEquals("2,33;4,33;6,33;", execute(script, new HashMap<>()));
+		assertEquals("2,33;4,33;6,33;", execute(script, new HashMap<>()));
+	}
+
+	@Test
+	public void testConstantEchoIsMergedWithText() throws IOException {
+		CompiledScript script = compile("a {$= 1 2 + $} b {$= \"x\" 3 $} c");
+
+		assertEquals(1, script.getInstructionCount());
+		assertEquals("a 3 b x3 c", execute(script, new HashMap<>()));
+	}
+
+	@Test
+	public void testBlankConstantEchoIsDropped() throws IOException {
+		CompiledScript script = compile("a{$= \" \" \"  \" $}b");
+
+		assertEquals(1, script.getInstructionCount());
+		assertEquals("ab", execute(script, new HashMap<>()));
+	}
+
+	@Test
+	public void testEchoWithParameterIsNotFolded() throws IOException {
+		CompiledScript script = compile("a{$= 1 2 + \"p\" \"?\" @paramGet $}b");
+		Map<String, String> parameters = new HashMap<>();
+		parameters.put("p", "5");
+
+		assertEquals(3, script.getInstructionCount());
+		assertEquals("a35b", execute(script, parameters));
+		assertEquals("a3?b", execute(script, new HashMap<>()));
+	}
+
+	@Test
+	public void testFunctionWithSideEffectIsNotFolded() throws IOException {
+		CompiledScript script = compile("{$= \"text/plain\" @setMimeType \"x\" $}");
+
+		assertEquals(1, script.getInstructionCount());
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		script.execute(context);
+		context.finish();
+		assertEquals(true, os.toString("UTF-8").contains("Content-Type: text/plain"));
+	}
+
+	@Test
+	public void testArithmeticIsFoldedAsExecuted() throws IOException {
+		assertFoldedEqualsExecuted("3", "4", "+");
+		assertFoldedEqualsExecuted("3", "4", "-");
+		assertFoldedEqualsExecuted("3", "4", "*");
+		assertFoldedEqualsExecuted("3", "4", "/");
+		assertFoldedEqualsExecuted("4", "2", "/");
+		assertFoldedEqualsExecuted("2.5", "3", "*");
+		assertFoldedEqualsExecuted("0.1", "0.2", "+");
+		assertFoldedEqualsExecuted("1", "3", "/", "3", "*");
+		assertFoldedEqualsExecuted("\"1.5\"", "2", "+");
+		assertFoldedEqualsExecuted("2", "0", "/");
+	}
+
+	@Test
+	public void testFunctionsAreFoldedAsExecuted() throws IOException {
+		assertFoldedEqualsExecuted("30", "@sin");
+		assertFoldedEqualsExecuted("45.5", "@sin");
+		assertFoldedEqualsExecuted("90", "@sin", "\"0.000\"", "@decfmt");
+		assertFoldedEqualsExecuted("3.14159", "\"0.00\"", "@decfmt");
+		assertFoldedEqualsExecuted("7", "@dup", "*");
+		assertFoldedEqualsExecuted("\"a\"", "\"b\"", "@swap");
+		assertFoldedEqualsExecuted("1", "2", "@swap", "-");
+	}
+
+	@Test
+	public void testFailingConstantOperationFailsAtRunTime() throws IOException {
+		CompiledScript script = compile("a{$= \"x\" 1 + $}b");
+
+		try {
+			execute(script, new HashMap<>());
+			fail();
+		} catch (NumberFormatException e) {
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class IndexedMultistackTest {
+
+	private static final String[] names = { "i", "price" };
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullNames() {
+		new IndexedMultistack(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPushNullWrapper() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+
+		multistack.push(0, null);
+	}
+
+	@Test(expected = ObjectMultistackException.class)
+	public void testPopEmptyStack() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+
+		multistack.pop(0);
+	}
+
+	@Test(expected = ObjectMultistackException.class)
+	public void testPeekEmptyAfterPopping() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+
+		multistack.push(1, new ValueWrapper(5));
+		multistack.pop(1);
+
+		multistack.peek(1);
+	}
+
+	@Test
+	public void testEmptyStackMessageNamesSlot() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+
+		try {
+			multistack.peek(1);
+			fail();
+		} catch (ObjectMultistackException e) {
+			assertEquals("Stack for key price is empty.", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testIsEmpty() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+
+		assertTrue(multistack.isEmpty(0));
+
+		multistack.push(0, new ValueWrapper(5));
+
+		assertFalse(multistack.isEmpty(0));
+		assertTrue(multistack.isEmpty(1));
+
+		multistack.pop(0);
+
+		assertTrue(multistack.isEmpty(0));
+	}
+
+	@Test
+	public void testSlotsAreIndependentStacks() {
+		IndexedMultistack multistack = new IndexedMultistack(names);
+		ValueWrapper outer = new ValueWrapper(1);
+		ValueWrapper inner = new ValueWrapper(2);
+
+		multistack.push(0, outer);
+		multistack.push(1, new ValueWrapper("27.5"));
+		multistack.push(0, inner);
+
+		assertSame(inner, multistack.peek(0));
+		assertSame(inner, multistack.pop(0));
+		assertSame(outer, multistack.peek(0));
+		assertEquals("27.5", multistack.pop(1).getValue());
+		assertSame(outer, multistack.pop(0));
+		assertTrue(multistack.isEmpty(0));
+		assertTrue(multistack.isEmpty(1));
+	}
+}
@@ -0,0 +1,90 @@
+package hr.fer.zemris.java.custom.scripting.exec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EmptyStackException;
+
+import org.junit.Test;
+
+public class OperandStackTest {
+
+	@Test(expected = EmptyStackException.class)
+	public void testPopEmptyStack() {
+		new OperandStack().pop();
+	}
+
+	@Test(expected = EmptyStackException.class)
+	public void testPeekEmptyStack() {
+		new OperandStack().peek();
+	}
+
+	@Test
+	public void testPushAndPop() {
+		OperandStack stack = new OperandStack();
+		stack.push(1);
+		stack.push("a");
+		stack.push(null);
+
+		assertEquals(3, stack.size());
+		assertNull(stack.pop());
+		assertEquals("a", stack.peek());
+		assertEquals("a", stack.pop());
+		assertEquals(1, stack.pop());
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test
+	public void testGrowsBeyondInitialCapacity() {
+		OperandStack stack = new OperandStack();
+		for (int i = 0; i < 100; i++) {
+			stack.push(i);
+		}
+
+		assertEquals(100, stack.size());
+		for (int i = 99; i >= 0; i--) {
+			assertEquals(i, stack.pop());
+		}
+	}
+
+	@Test
+	public void testGetAndSetFromBottom() {
+		OperandStack stack = new OperandStack();
+		stack.push(1);
+		stack.push(2);
+		stack.set(0, "1");
+
+		assertEquals("1", stack.get(0));
+		assertEquals(2, stack.get(1));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetAboveTop() {
+		OperandStack stack = new OperandStack();
+		stack.push(1);
+
+		stack.get(1);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSetNegativeIndex() {
+		OperandStack stack = new OperandStack();
+		stack.push(1);
+
+		stack.set(-1, 2);
+	}
+
+	@Test
+	public void testClear() {
+		OperandStack stack = new OperandStack();
+		stack.push(1);
+		stack.push(2);
+		stack.clear();
+
+		assertTrue(stack.isEmpty());
+		stack.push(3);
+		assertEquals(1, stack.size());
+		assertEquals(3, stack.peek());
+	}
+}
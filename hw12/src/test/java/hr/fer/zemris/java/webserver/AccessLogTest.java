@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file() {
+		return folder.getRoot().toPath().resolve("server.log");
+	}
+
+	private List<String> lines(Path file) throws IOException {
+		return Files.readAllLines(file, StandardCharsets.UTF_8);
+	}
+
+	private void awaitRecord(Path file, String record) throws Exception {
+		for (int i = 0; i < 100; i++) {
+			if (Files.exists(file) && new String(Files.readAllBytes(file), StandardCharsets.UTF_8).contains(record)) {
+				return;
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	@Test
+	public void testRecordsWrittenToFile() throws IOException {
+		AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, file(), 1 << 20, 1, 16);
+		log.start();
+
+		log.access("127.0.0.1", "GET /index.html HTTP/1.1", 200, 10, 5000);
+		log.log(AccessLog.Level.DEBUG, "hidden");
+		log.log(AccessLog.Level.WARN, "warning");
+		log.close();
+
+		List<String> lines = lines(file());
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(0).endsWith(" INFO 127.0.0.1 \"GET /index.html HTTP/1.1\" 200 10 5us"));
+		assertTrue(lines.get(1).endsWith(" WARN warning"));
+	}
+
+	@Test
+	public void testLevels() {
+		AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, null, 0, 0, 16);
+
+		assertFalse(log.isEnabled(AccessLog.Level.DEBUG));
+		assertTrue(log.isEnabled(AccessLog.Level.INFO));
+		assertTrue(log.isEnabled(AccessLog.Level.WARN));
+		assertFalse(new AccessLog(AccessLog.Level.OFF, 1, null, 0, 0, 16).isEnabled(AccessLog.Level.WARN));
+	}
+
+	@Test
+	public void testAccessRecordsSampled() throws IOException {
+		AccessLog log = new AccessLog(AccessLog.Level.INFO, 0, file(), 1 << 20, 1, 16);
+		log.start();
+
+		for (int i = 0; i < 10; i++) {
+			log.access("127.0.0.1", "GET / HTTP/1.1", 200, 0, 0);
+		}
+		log.log(AccessLog.Level.INFO, "event");
+		log.close();
+
+		List<String> lines = lines(file());
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0).endsWith(" INFO event"));
+	}
+
+	@Test
+	public void testFullBufferDropsRecords() throws IOException {
+		AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, file(), 1 << 20, 1, 4);
+
+		for (int i = 0; i < 6; i++) {
+			log.log(AccessLog.Level.INFO, "record " + i);
+		}
+		assertEquals(2, log.getDropped());
+
+		log.start();
+		log.close();
+		List<String> lines = lines(file());
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(3).endsWith(" INFO record 3"));
+	}
+
+	@Test
+	public void testRotation() throws Exception {
+		AccessLog log = new AccessLog(AccessLog.Level.INFO, 1, file(), 10, 2, 16);
+		Path first = Paths.get(file() + ".1");
+		Path second = Paths.get(file() + ".2");
+		log.start();
+
+		for (int i = 1; i <= 3; i++) {
+			log.log(AccessLog.Level.INFO, "record " + i);
+			awaitRecord(first, "record " + i);
+		}
+		log.close();
+
+		assertTrue(lines(first).get(0).endsWith(" INFO record 3"));
+		assertTrue(lines(second).get(0).endsWith(" INFO record 2"));
+		assertFalse(Files.exists(Paths.get(file() + ".3")));
+	}
+}
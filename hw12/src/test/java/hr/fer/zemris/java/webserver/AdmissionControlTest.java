@@ -0,0 +1,137 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.AdmissionControl.Policy;
+
+public class AdmissionControlTest {
+
+	private static final InetAddress first = InetAddress.getLoopbackAddress();
+
+	private static InetAddress second() throws IOException {
+		return InetAddress.getByAddress(new byte[] { 10, 0, 0, 2 });
+	}
+
+	private static AdmissionControl admission(int maxClients, int maxClientsPerAddress, long maxQueueTime,
+			ServerMetrics metrics) {
+		return new AdmissionControl(Policy.REJECT, 3, maxClients, maxClientsPerAddress, maxQueueTime, metrics);
+	}
+
+	@Test
+	public void testMaxClients() throws IOException {
+		AdmissionControl admission = admission(2, 0, 0, new ServerMetrics());
+		assertNull(admission.admit(first));
+		assertNull(admission.admit(second()));
+		assertEquals(AdmissionControl.queueFull, admission.admit(first));
+
+		admission.release(first);
+		assertNull(admission.admit(second()));
+	}
+
+	@Test
+	public void testUnlimitedClients() {
+		AdmissionControl admission = admission(0, 0, 0, new ServerMetrics());
+		for (int i = 0; i < 1000; i++) {
+			assertNull(admission.admit(first));
+		}
+	}
+
+	@Test
+	public void testClientsCountedPerAddress() throws IOException {
+		AdmissionControl admission = admission(0, 2, 0, new ServerMetrics());
+		assertNull(admission.admit(first));
+		assertNull(admission.admit(first));
+		assertEquals(AdmissionControl.clientLimit, admission.admit(first));
+		assertNull(admission.admit(second()));
+
+		admission.release(first);
+		assertNull(admission.admit(first));
+		assertEquals(AdmissionControl.clientLimit, admission.admit(first));
+	}
+
+	@Test
+	public void testRejectedAddressDoesNotCountAgainstServer() {
+		AdmissionControl admission = admission(2, 1, 0, new ServerMetrics());
+		assertNull(admission.admit(first));
+		assertEquals(AdmissionControl.clientLimit, admission.admit(first));
+		assertEquals(AdmissionControl.clientLimit, admission.admit(first));
+
+		admission.release(first);
+		assertNull(admission.admit(first));
+	}
+
+	@Test
+	public void testAddressRemovedWithoutClients() throws IOException {
+		AdmissionControl admission = admission(0, 2, 0, new ServerMetrics());
+		admission.admit(first);
+		admission.admit(first);
+		admission.admit(second());
+		assertEquals(2, admission.getAddressCount());
+
+		admission.release(first);
+		admission.release(second());
+		assertEquals(1, admission.getAddressCount());
+		admission.release(first);
+		assertEquals(0, admission.getAddressCount());
+	}
+
+	@Test
+	public void testAddressRemovedAfterRejection() {
+		AdmissionControl admission = admission(0, 1, 0, new ServerMetrics());
+		admission.admit(first);
+		admission.admit(first);
+		admission.release(first);
+		assertEquals(0, admission.getAddressCount());
+	}
+
+	@Test
+	public void testQueueTime() {
+		AdmissionControl admission = admission(0, 0, 100, new ServerMetrics());
+		long now = System.nanoTime();
+		assertFalse(admission.isExpired(now));
+		assertTrue(admission.isExpired(now - TimeUnit.MILLISECONDS.toNanos(200)));
+	}
+
+	@Test
+	public void testUnlimitedQueueTime() {
+		AdmissionControl admission = admission(0, 0, 0, new ServerMetrics());
+		assertFalse(admission.isExpired(System.nanoTime() - TimeUnit.HOURS.toNanos(1)));
+	}
+
+	@Test
+	public void testRejectionResponse() throws IOException {
+		ServerMetrics metrics = new ServerMetrics();
+		AdmissionControl admission = admission(0, 0, 100, metrics);
+		try (ServerSocket server = new ServerSocket(0, 1, first);
+				Socket client = new Socket(first, server.getLocalPort())) {
+			admission.reject(server.accept(), AdmissionControl.queueTime);
+
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			InputStream is = client.getInputStream();
+			byte[] buffer = new byte[1024];
+			for (int read; (read = is.read(buffer)) != -1;) {
+				response.write(buffer, 0, read);
+			}
+
+			String text = new String(response.toByteArray(), StandardCharsets.UTF_8);
+			assertTrue(text.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+			assertTrue(text.contains("\r\nRetry-After: 3\r\n"));
+			assertTrue(text.contains("\r\nConnection: close\r\n"));
+		}
+		assertTrue(metrics.format().contains("smarthttp_rejected_clients_total{reason=\"queue_time\"} 1"));
+	}
+}
@@ -0,0 +1,165 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.ConditionalRequest.ByteRange;
+
+public class ConditionalRequestTest {
+
+	private static final long size = 1000;
+
+	private static final long modified = 1500000000123L;
+
+	private static final String tag = ConditionalRequest.entityTag(size, modified);
+
+	private static final String date = "Fri, 14 Jul 2017 02:40:00 GMT";
+
+	private static ByteRange range(String range) {
+		return new ConditionalRequest(null, null, range, null).getRange(tag, modified, size);
+	}
+
+	private static void assertRange(long first, long length, ByteRange range) {
+		assertTrue(range.isSatisfiable());
+		assertEquals(first, range.getFirst());
+		assertEquals(length, range.getLength());
+	}
+
+	@Test
+	public void testEntityTag() {
+		assertEquals("\"3e8-15d3ef7987b\"", tag);
+		assertEquals("\"3e8-15d3ef7987b-gzip\"", ConditionalRequest.entityTag(tag, "gzip"));
+	}
+
+	@Test
+	public void testFormatDate() {
+		assertEquals(date, ConditionalRequest.formatDate(modified));
+	}
+
+	@Test
+	public void testValidatorFields() {
+		assertEquals("ETag: " + tag + "\r\nLast-Modified: " + date + "\r\nAccept-Ranges: bytes\r\n",
+				ConditionalRequest.validatorFields(tag, modified));
+	}
+
+	@Test
+	public void testNoConditions() {
+		assertFalse(new ConditionalRequest(null, null, null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testIfNoneMatch() {
+		assertTrue(new ConditionalRequest(tag, null, null, null).isNotModified(tag, modified));
+		assertTrue(new ConditionalRequest("\"x\", W/" + tag, null, null, null).isNotModified(tag, modified));
+		assertTrue(new ConditionalRequest("*", null, null, null).isNotModified(tag, modified));
+		assertFalse(new ConditionalRequest("\"x\"", null, null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testIfNoneMatchOfCompressedVariant() {
+		String gzipTag = ConditionalRequest.entityTag(tag, "gzip");
+		assertTrue(new ConditionalRequest(gzipTag, null, null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testIfNoneMatchOfOtherVersion() {
+		String other = ConditionalRequest.entityTag(size, modified + 1);
+		assertFalse(new ConditionalRequest(other, null, null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testIfNoneMatchIsUsedBeforeIfModifiedSince() {
+		assertFalse(new ConditionalRequest("\"x\"", date, null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testIfModifiedSince() {
+		assertTrue(new ConditionalRequest(null, date, null, null).isNotModified(tag, modified));
+		assertTrue(new ConditionalRequest(null, "Sat, 15 Jul 2017 00:00:00 GMT", null, null)
+				.isNotModified(tag, modified));
+		assertFalse(new ConditionalRequest(null, "Fri, 14 Jul 2017 02:39:59 GMT", null, null)
+				.isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testInvalidIfModifiedSince() {
+		assertFalse(new ConditionalRequest(null, "yesterday", null, null).isNotModified(tag, modified));
+	}
+
+	@Test
+	public void testNoRange() {
+		assertNull(range(null));
+	}
+
+	@Test
+	public void testClosedRange() {
+		assertRange(0, 500, range("bytes=0-499"));
+		assertRange(500, 1, range("bytes=500-500"));
+		assertRange(900, 100, range("BYTES=900-5000"));
+	}
+
+	@Test
+	public void testOpenRange() {
+		assertRange(900, 100, range("bytes=900-"));
+	}
+
+	@Test
+	public void testSuffixRange() {
+		assertRange(900, 100, range("bytes=-100"));
+		assertRange(0, 1000, range("bytes=-5000"));
+	}
+
+	@Test
+	public void testUnsatisfiableRange() {
+		assertSame(ByteRange.unsatisfiable, range("bytes=1000-"));
+		assertSame(ByteRange.unsatisfiable, range("bytes=-0"));
+		assertFalse(range("bytes=2000-3000").isSatisfiable());
+		assertEquals("bytes */1000", range("bytes=2000-3000").contentRange(size));
+	}
+
+	@Test
+	public void testContentRange() {
+		assertEquals("bytes 100-199/1000", range("bytes=100-199").contentRange(size));
+	}
+
+	@Test
+	public void testIgnoredRanges() {
+		assertNull(range("items=0-10"));
+		assertNull(range("bytes=0-10,20-30"));
+		assertNull(range("bytes=10"));
+		assertNull(range("bytes=20-10"));
+		assertNull(range("bytes=a-b"));
+		assertNull(range("bytes=-"));
+	}
+
+	@Test
+	public void testNegativeRanges() {
+		assertNull(range("bytes=--5"));
+		assertNull(range("bytes=-5-10"));
+		assertNull(range("bytes=5--10"));
+		assertNull(range("bytes=0--1"));
+		assertNull(range("bytes=+5-10"));
+		assertNull(range("bytes=5-+10"));
+		assertNull(range("bytes=-+5"));
+	}
+
+	@Test
+	public void testTooLargeRange() {
+		assertNull(range("bytes=0-99999999999999999999"));
+	}
+
+	@Test
+	public void testIfRange() {
+		assertRange(0, 10, new ConditionalRequest(null, null, "bytes=0-9", tag).getRange(tag, modified, size));
+		assertRange(0, 10, new ConditionalRequest(null, null, "bytes=0-9", date).getRange(tag, modified, size));
+		assertNull(new ConditionalRequest(null, null, "bytes=0-9", "\"x\"").getRange(tag, modified, size));
+		assertNull(new ConditionalRequest(null, null, "bytes=0-9", "W/" + tag).getRange(tag, modified, size));
+		assertNull(new ConditionalRequest(null, null, "bytes=0-9", "Fri, 14 Jul 2017 02:39:59 GMT")
+				.getRange(tag, modified, size));
+	}
+}
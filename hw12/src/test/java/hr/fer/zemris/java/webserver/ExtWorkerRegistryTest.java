@@ -0,0 +1,98 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtWorkerRegistryTest {
+
+	private static final String packageName = "hr.fer.zemris.java.webserver";
+
+	private static AtomicInteger created = new AtomicInteger();
+
+	public static class CountingWorker implements IWebWorker {
+
+		public CountingWorker() {
+			created.incrementAndGet();
+		}
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	public static class FailingWorker implements IWebWorker {
+
+		public FailingWorker() {
+			created.incrementAndGet();
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	public static abstract class AbstractWorker implements IWebWorker {
+	}
+
+	@Before
+	public void resetCount() {
+		created.set(0);
+	}
+
+	@Test
+	public void testWorkerResolvedOnce() {
+		ExtWorkerRegistry registry = new ExtWorkerRegistry(packageName, 4, 16);
+
+		WorkerPool pool = registry.get("ExtWorkerRegistryTest$CountingWorker");
+		assertNotNull(pool);
+		assertSame(pool, registry.get("ExtWorkerRegistryTest$CountingWorker"));
+		assertEquals(1, created.get());
+	}
+
+	@Test
+	public void testInvalidNames() {
+		ExtWorkerRegistry registry = new ExtWorkerRegistry(packageName, 4, 16);
+
+		assertNull(registry.get(""));
+		assertNull(registry.get("../ExtWorkerRegistryTest$CountingWorker"));
+		assertNull(registry.get("workers.HelloWorker"));
+		assertNull(registry.get("1Worker"));
+		assertNull(registry.get("Counting Worker"));
+		assertEquals(0, created.get());
+	}
+
+	@Test
+	public void testClassesThatArentWorkers() {
+		ExtWorkerRegistry registry = new ExtWorkerRegistry(packageName, 4, 16);
+
+		assertNull(registry.get("ExtWorkerRegistryTest"));
+		assertNull(registry.get("ExtWorkerRegistryTest$AbstractWorker"));
+		assertNull(registry.get("MissingWorker"));
+	}
+
+	@Test
+	public void testUnknownNameCached() {
+		ExtWorkerRegistry registry = new ExtWorkerRegistry(packageName, 4, 16);
+
+		assertNull(registry.get("ExtWorkerRegistryTest$FailingWorker"));
+		assertNull(registry.get("ExtWorkerRegistryTest$FailingWorker"));
+		assertEquals(1, created.get());
+	}
+
+	@Test
+	public void testUnknownNamesBounded() {
+		ExtWorkerRegistry registry = new ExtWorkerRegistry(packageName, 4, 0);
+
+		assertNull(registry.get("ExtWorkerRegistryTest$FailingWorker"));
+		assertNull(registry.get("ExtWorkerRegistryTest$FailingWorker"));
+		assertEquals(2, created.get());
+	}
+}
@@ -0,0 +1,276 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HttpRequestParserTest {
+
+	private static final String request = "GET /index.html?a=1 HTTP/1.1\r\n" + "Host: 127.0.0.1:5721\r\n"
+			+ "cOOKIE: sid=\"ABC\"\r\n" + "Connection:  keep-alive \r\n" + "Accept-Encoding: gzip\r\n"
+			+ "If-None-Match: \"123\"\r\n" + "X-Other: ignored\r\n" + "\r\n";
+
+	private static ByteBuffer buffer(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static String remaining(ByteBuffer buffer) {
+		return new String(buffer.array(), buffer.position(), buffer.remaining(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static String cookie(int length) {
+		StringBuilder sb = new StringBuilder("a=");
+		while (sb.length() < length) {
+			sb.append('x');
+		}
+		return sb.toString();
+	}
+
+	private static void assertRequest(HttpRequestParser parser) {
+		assertFalse(parser.isTooLarge());
+		assertEquals("GET /index.html?a=1 HTTP/1.1", parser.getRequestLine());
+		assertEquals("GET", parser.getMethod());
+		assertEquals("/index.html?a=1", parser.getTarget());
+		assertEquals("HTTP/1.1", parser.getVersion());
+		assertEquals("127.0.0.1:5721", parser.getHost());
+		assertEquals("sid=\"ABC\"", parser.getCookie());
+		assertEquals("keep-alive", parser.getConnection());
+		assertEquals("gzip", parser.getAcceptEncoding());
+		assertEquals("\"123\"", parser.getIfNoneMatch());
+		assertNull(parser.getIfModifiedSince());
+	}
+
+	@Test
+	public void testWholeRequest() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+		ByteBuffer buffer = buffer(request);
+
+		assertTrue(parser.parse(buffer));
+		assertRequest(parser);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void testRequestSplitAtEveryByte() {
+		byte[] bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		for (int i = 0; i < bytes.length - 1; i++) {
+			assertFalse(parser.parse(ByteBuffer.wrap(bytes, i, 1)));
+		}
+		assertTrue(parser.parse(ByteBuffer.wrap(bytes, bytes.length - 1, 1)));
+		assertRequest(parser);
+	}
+
+	@Test
+	public void testRequestSplitBetweenCrAndLf() {
+		int split = request.indexOf("\r\n\r\n") + 3;
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertFalse(parser.parse(buffer(request.substring(0, split))));
+		assertTrue(parser.parse(buffer(request.substring(split))));
+		assertRequest(parser);
+	}
+
+	@Test
+	public void testPipelinedRequests() {
+		String second = "GET /second HTTP/1.0\r\n\r\n";
+		ByteBuffer buffer = buffer(request + second + "GET /thi");
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer));
+		assertRequest(parser);
+		assertEquals(second + "GET /thi", remaining(buffer));
+
+		parser.reset();
+		assertTrue(parser.parse(buffer));
+		assertEquals("/second", parser.getTarget());
+		assertEquals("HTTP/1.0", parser.getVersion());
+		assertNull(parser.getHost());
+		assertNull(parser.getCookie());
+		assertEquals("GET /thi", remaining(buffer));
+
+		parser.reset();
+		assertFalse(parser.parse(buffer));
+		assertTrue(parser.parse(buffer("rd HTTP/1.1\r\n\r\n")));
+		assertEquals("/third", parser.getTarget());
+	}
+
+	@Test
+	public void testEmptyLinesBeforeRequestLine() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer("\r\n\r\n" + request)));
+		assertRequest(parser);
+	}
+
+	@Test
+	public void testLinesEndedWithLf() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer(request.replace("\r\n", "\n"))));
+		assertRequest(parser);
+	}
+
+	@Test
+	public void testCookieFieldsAreJoined() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer("GET / HTTP/1.1\r\nCookie: a=1; b=2\r\nCookie: sid=\"X\"\r\n\r\n")));
+		assertEquals("a=1; b=2; sid=\"X\"", parser.getCookie());
+	}
+
+	@Test
+	public void testMalformedRequestLine() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer("GET  /index.html HTTP/1.1\r\n\r\n")));
+		assertFalse(parser.isTooLarge());
+		assertEquals("GET  /index.html HTTP/1.1", parser.getRequestLine());
+		assertNull(parser.getMethod());
+		assertNull(parser.getTarget());
+		assertNull(parser.getVersion());
+	}
+
+	@Test
+	public void testHeaderLargerThanLimit() {
+		HttpRequestParser parser = new HttpRequestParser(64, 100);
+		ByteBuffer buffer = buffer(request);
+
+		assertTrue(parser.parse(buffer));
+		assertTrue(parser.isTooLarge());
+	}
+
+	@Test
+	public void testHeaderLargerThanLimitSplit() {
+		HttpRequestParser parser = new HttpRequestParser(64, 100);
+
+		assertFalse(parser.parse(buffer(request.substring(0, 40))));
+		assertTrue(parser.parse(buffer(request.substring(40))));
+		assertTrue(parser.isTooLarge());
+	}
+
+	@Test
+	public void testLineLongerThanLimit() {
+		StringBuilder sb = new StringBuilder("GET /");
+		for (int i = 0; i < 100; i++) {
+			sb.append('a');
+		}
+		HttpRequestParser parser = new HttpRequestParser(64, 100);
+
+		assertTrue(parser.parse(buffer(sb.toString())));
+		assertTrue(parser.isTooLarge());
+		assertNull(parser.getRequestLine());
+	}
+
+	@Test
+	public void testHeaderExactlyAtLimit() {
+		String text = "GET / HTTP/1.1\r\nHost: x\r\n\r\n";
+		HttpRequestParser parser = new HttpRequestParser(text.length(), 100);
+
+		assertTrue(parser.parse(buffer(text)));
+		assertFalse(parser.isTooLarge());
+		assertEquals("x", parser.getHost());
+	}
+
+	@Test
+	public void testHeaderLargerThanInitialBuffer() {
+		String cookie = cookie(5000);
+		String text = "GET / HTTP/1.1\r\nCookie: " + cookie + "\r\nHost: h\r\n\r\nGET /next";
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+		ByteBuffer buffer = buffer(text);
+
+		assertTrue(parser.parse(buffer));
+		assertFalse(parser.isTooLarge());
+		assertEquals(cookie, parser.getCookie());
+		assertEquals("h", parser.getHost());
+		assertEquals("GET /next", remaining(buffer));
+	}
+
+	@Test
+	public void testHeaderLargerThanInitialBufferSplit() {
+		String cookie = cookie(5000);
+		String text = "GET / HTTP/1.1\r\nCookie: " + cookie + "\r\nHost: h\r\n\r\n";
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		for (int i = 0; i < text.length(); i += 100) {
+			boolean done = parser.parse(buffer(text.substring(i, Math.min(i + 100, text.length()))));
+			assertEquals(i + 100 >= text.length(), done);
+		}
+		assertFalse(parser.isTooLarge());
+		assertEquals(cookie, parser.getCookie());
+		assertEquals("h", parser.getHost());
+	}
+
+	@Test
+	public void testGrownHeaderLargerThanLimit() {
+		HttpRequestParser parser = new HttpRequestParser(3000, 100);
+
+		assertTrue(parser.parse(buffer("GET / HTTP/1.1\r\nCookie: " + cookie(5000) + "\r\n\r\n")));
+		assertTrue(parser.isTooLarge());
+	}
+
+	@Test
+	public void testTooManyHeaderFields() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 2);
+
+		assertTrue(parser.parse(buffer("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\nD: 4\r\n\r\n")));
+		assertTrue(parser.isTooLarge());
+	}
+
+	@Test
+	public void testHeaderFieldsAtLimit() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 2);
+
+		assertTrue(parser.parse(buffer("GET / HTTP/1.1\r\nA: 1\r\nHost: h\r\n\r\n")));
+		assertFalse(parser.isTooLarge());
+		assertEquals("h", parser.getHost());
+	}
+
+	@Test
+	public void testChunkedBodyIsLeftInBuffer() {
+		String body = "4\r\nWiki\r\n5\r\npedia\r\n0\r\n\r\n";
+		ByteBuffer buffer = buffer("GET / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" + body);
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertTrue(parser.parse(buffer));
+		assertFalse(parser.isTooLarge());
+		assertEquals(body, remaining(buffer));
+	}
+
+	@Test
+	public void testChunkedBodySplitAcrossReads() {
+		String header = "GET / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n";
+		String body = "4\r\nWiki\r\n0\r\n\r\n";
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+
+		assertFalse(parser.parse(buffer(header.substring(0, 20))));
+		ByteBuffer buffer = buffer(header.substring(20) + body.substring(0, 5));
+		assertTrue(parser.parse(buffer));
+		assertEquals(body.substring(0, 5), remaining(buffer));
+	}
+
+	@Test
+	public void testResetClearsFields() {
+		HttpRequestParser parser = new HttpRequestParser(8192, 100);
+		parser.parse(buffer(request));
+
+		parser.reset();
+		assertNull(parser.getRequestLine());
+		assertNull(parser.getHost());
+		assertNull(parser.getCookie());
+		assertFalse(parser.parse(buffer("GET / HTTP/1.1\r\n")));
+		assertNull(parser.getHost());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNonPositiveHeaderSize() {
+		new HttpRequestParser(0, 100);
+	}
+}
@@ -0,0 +1,217 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class RequestContextTest {
+
+	private static class RecordingChannel implements WritableByteChannel {
+
+		private ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			byte[] bytes = new byte[length];
+			src.get(bytes);
+			written.write(bytes, 0, length);
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private static Path file(String content) throws IOException {
+		Path file = Files.createTempFile("context", ".txt");
+		file.toFile().deleteOnExit();
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String written(RecordingChannel channel) throws IOException {
+		return channel.written.toString("UTF-8");
+	}
+
+	private static String body(String response) {
+		return response.substring(response.indexOf("\r\n\r\n") + 4);
+	}
+
+	private static RequestContext context(ByteArrayOutputStream os, int bufferSize) {
+		RequestContext context = new RequestContext(os, null, null, null);
+		context.setBufferSize(bufferSize);
+		return context;
+	}
+
+	@Test
+	public void testWriteFileTransfersToChannel() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RecordingChannel channel = new RecordingChannel();
+		RequestContext context = new RequestContext(os, null, null, null);
+		context.setChannel(channel);
+
+		context.writeFile(file("0123456789"));
+
+		String header = os.toString("UTF-8");
+		assertTrue(header.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(header.contains("Content-Length: 10\r\n"));
+		assertTrue(header.endsWith("\r\n\r\n"));
+		assertEquals("0123456789", written(channel));
+	}
+
+	@Test
+	public void testWriteFileWithoutChannel() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+
+		context.writeFile(file("0123456789"));
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.contains("Content-Length: 10\r\n"));
+		assertTrue(response.endsWith("\r\n\r\n0123456789"));
+	}
+
+	@Test
+	public void testSmallBodyHasContentLength() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		context.write("0123456789");
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(response.contains("Content-Length: 10\r\n"));
+		assertEquals("0123456789", body(response));
+	}
+
+	@Test
+	public void testFirstWriteEqualToBufferSize() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		context.write("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertEquals("0123456789abcdef", body(response));
+	}
+
+	@Test
+	public void testFirstWriteLargerThanBufferSize() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		context.write("0123456789abcdefXYZ".getBytes(StandardCharsets.UTF_8));
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertEquals("0123456789abcdefXYZ", body(response));
+	}
+
+	@Test
+	public void testWriteEqualToBufferSizeAfterBufferedBytes() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		context.write("ab");
+		context.write("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+		context.write("cd");
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertEquals("ab0123456789abcdefcd", body(response));
+	}
+
+	@Test
+	public void testChunkedWriteEqualToBufferSize() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		context.setKeepAlive(true);
+		context.write("0123456789abcdef".getBytes(StandardCharsets.UTF_8));
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(response.contains("Transfer-Encoding: chunked\r\n"));
+		assertEquals("10\r\n0123456789abcdef\r\n0\r\n\r\n", body(response));
+	}
+
+	@Test
+	public void testPreparedBodyEqualToBufferSize() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = context(os, 16);
+		byte[] body = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+		context.writePrepared(RequestContext.contentHeaderFields("text/plain", "UTF-8", body.length), body);
+		context.finish();
+
+		String response = os.toString("UTF-8");
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(response.contains("Content-Length: 16\r\n"));
+		assertEquals("0123456789abcdef", body(response));
+	}
+
+	@Test
+	public void testBytesWrittenCountsCompressedBody() throws IOException {
+		Map<String, String> properties = new HashMap<>();
+		properties.put("compression.types", "text/plain");
+		properties.put("compression.threshold", "0");
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		RequestContext context = new RequestContext(os, null, null, null);
+		context.setMimeType("text/plain");
+		context.setCompression(new ResponseCompression(properties), ResponseCompression.gzip);
+
+		byte[] text = new byte[5000];
+		Arrays.fill(text, (byte) 'a');
+		context.write(text);
+		context.finish();
+
+		byte[] response = os.toByteArray();
+		int bodyStart = os.toString("ISO-8859-1").indexOf("\r\n\r\n") + 4;
+		byte[] body = Arrays.copyOfRange(response, bodyStart, response.length);
+		assertTrue(body.length < text.length);
+		assertEquals(body.length, context.getBytesWritten());
+
+		ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+		try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(body))) {
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				decompressed.write(buffer, 0, read);
+			}
+		}
+		assertArrayEquals(text, decompressed.toByteArray());
+	}
+
+	@Test
+	public void testBytesWrittenCountsPlainBody() throws IOException {
+		RequestContext context = new RequestContext(new ByteArrayOutputStream(), null, null, null);
+
+		context.write(new byte[5000]);
+		context.finish();
+
+		assertEquals(5000, context.getBytesWritten());
+	}
+}
@@ -0,0 +1,120 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ScriptOutputCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path script(String name) throws IOException {
+		Path script = folder.getRoot().toPath().resolve(name);
+		Files.write(script, "script".getBytes(StandardCharsets.UTF_8));
+		return script;
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> none() {
+		return Collections.emptyMap();
+	}
+
+	@Test
+	public void testStoredOutput() throws IOException {
+		Path script = script("a.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(100, 100);
+
+		cache.put(script, none(), "text/plain", bytes("output"), 60);
+
+		ScriptOutputCache.Entry entry = cache.get(script, none());
+		assertNotNull(entry);
+		assertEquals("text/plain", entry.getMimeType());
+		assertArrayEquals(bytes("output"), entry.getBody());
+	}
+
+	@Test
+	public void testParametersAreKey() throws IOException {
+		Path script = script("a.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(100, 100);
+		Map<String, String> parameters = new LinkedHashMap<>();
+		parameters.put("a", "1");
+		parameters.put("b", "2");
+		Map<String, String> reordered = new LinkedHashMap<>();
+		reordered.put("b", "2");
+		reordered.put("a", "1");
+
+		cache.put(script, parameters, "text/plain", bytes("output"), 60);
+
+		assertNotNull(cache.get(script, reordered));
+		assertNull(cache.get(script, none()));
+		assertNull(cache.get(script, new HashMap<>(Collections.singletonMap("a", "1"))));
+	}
+
+	@Test
+	public void testExpiredOutput() throws Exception {
+		Path script = script("a.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(100, 100);
+
+		cache.put(script, none(), "text/plain", bytes("output"), 1);
+		assertNotNull(cache.get(script, none()));
+
+		Thread.sleep(1100);
+		assertNull(cache.get(script, none()));
+	}
+
+	@Test
+	public void testChangedScript() throws IOException {
+		Path script = script("a.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(100, 100);
+
+		cache.put(script, none(), "text/plain", bytes("output"), 60);
+		Files.write(script, bytes("changed script"));
+
+		assertNull(cache.get(script, none()));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws IOException {
+		Path a = script("a.smscr");
+		Path b = script("b.smscr");
+		Path c = script("c.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(10, 10);
+
+		cache.put(a, none(), "text/plain", bytes("aaaa"), 60);
+		cache.put(b, none(), "text/plain", bytes("bbbb"), 60);
+		cache.get(a, none());
+		cache.put(c, none(), "text/plain", bytes("cccc"), 60);
+
+		assertNotNull(cache.get(a, none()));
+		assertNull(cache.get(b, none()));
+		assertNotNull(cache.get(c, none()));
+	}
+
+	@Test
+	public void testOversizeOutputNotCached() throws IOException {
+		Path script = script("a.smscr");
+		ScriptOutputCache cache = new ScriptOutputCache(100, 4);
+
+		cache.put(script, none(), "text/plain", bytes("output"), 60);
+
+		assertNull(cache.get(script, none()));
+	}
+}
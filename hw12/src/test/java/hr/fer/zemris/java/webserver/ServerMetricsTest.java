@@ -0,0 +1,125 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ServerMetricsTest {
+
+	private static double value(String metrics, String name) {
+		for (String line : metrics.split("\n")) {
+			if (line.startsWith(name + " ")) {
+				return Double.parseDouble(line.substring(name.length() + 1));
+			}
+		}
+		throw new AssertionError("Missing metric: " + name);
+	}
+
+	@Test
+	public void testCountersPerRoute() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.record(ServerMetrics.staticRoute, 200, 100, 1000);
+		metrics.record(ServerMetrics.staticRoute, 200, 100, 1000);
+		metrics.record(ServerMetrics.staticRoute, 404, 0, 1000);
+		metrics.record(ServerMetrics.scriptRoute, 200, 50, 1000);
+
+		String text = metrics.format();
+		assertEquals(3, value(text, "smarthttp_requests_total{route=\"static\"}"), 0);
+		assertEquals(1, value(text, "smarthttp_requests_total{route=\"script\"}"), 0);
+		assertEquals(200, value(text, "smarthttp_bytes_sent_total{route=\"static\"}"), 0);
+		assertEquals(50, value(text, "smarthttp_bytes_sent_total{route=\"script\"}"), 0);
+		assertEquals(2, value(text, "smarthttp_responses_total{route=\"static\",status=\"200\"}"), 0);
+		assertEquals(1, value(text, "smarthttp_responses_total{route=\"static\",status=\"404\"}"), 0);
+	}
+
+	@Test
+	public void testLatencyQuantiles() {
+		ServerMetrics metrics = new ServerMetrics();
+		for (int i = 1; i <= 1000; i++) {
+			metrics.record(ServerMetrics.workerRoute, 200, 0, TimeUnit.MILLISECONDS.toNanos(i));
+		}
+
+		String text = metrics.format();
+		double median = value(text, "smarthttp_request_latency_seconds{route=\"worker\",quantile=\"0.5\"}");
+		double tail = value(text, "smarthttp_request_latency_seconds{route=\"worker\",quantile=\"0.99\"}");
+		assertTrue(median >= 0.5 && median <= 0.5 * 1.07);
+		assertTrue(tail >= 0.99 && tail <= 0.99 * 1.07);
+		assertEquals(500.5, value(text, "smarthttp_request_latency_seconds_sum{route=\"worker\"}"), 1e-6);
+		assertEquals(1000, value(text, "smarthttp_request_latency_seconds_count{route=\"worker\"}"), 0);
+	}
+
+	@Test
+	public void testConnectionsGauge() {
+		ServerMetrics metrics = new ServerMetrics();
+		metrics.connectionOpened();
+		metrics.connectionOpened();
+		metrics.connectionClosed();
+
+		assertEquals(1, value(metrics.format(), "smarthttp_active_connections"), 0);
+	}
+
+	private static ThreadPoolExecutor blockedPool(int queued, CountDownLatch started, CountDownLatch release) {
+		ThreadPoolExecutor threadPool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>());
+		threadPool.execute(() -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException ignorable) {
+			}
+		});
+		for (int i = 0; i < queued; i++) {
+			threadPool.execute(() -> {
+			});
+		}
+		return threadPool;
+	}
+
+	@Test
+	public void testThreadPoolGauges() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor threadPool = blockedPool(2, started, release);
+		try {
+			started.await();
+
+			ServerMetrics metrics = new ServerMetrics();
+			metrics.setThreadPools(Collections.singletonList(threadPool));
+			String text = metrics.format();
+			assertEquals(2, value(text, "smarthttp_worker_queue_depth"), 0);
+			assertEquals(1, value(text, "smarthttp_active_workers"), 0);
+		} finally {
+			release.countDown();
+			threadPool.shutdown();
+		}
+	}
+
+	@Test
+	public void testThreadPoolGaugesSummedOverAcceptors() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor first = blockedPool(2, started, release);
+		ThreadPoolExecutor second = blockedPool(1, started, release);
+		try {
+			started.await();
+
+			ServerMetrics metrics = new ServerMetrics();
+			metrics.setThreadPools(Arrays.asList(first, second));
+			String text = metrics.format();
+			assertEquals(3, value(text, "smarthttp_worker_queue_depth"), 0);
+			assertEquals(2, value(text, "smarthttp_active_workers"), 0);
+		} finally {
+			release.countDown();
+			first.shutdown();
+			second.shutdown();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SessionStoreTest {
+
+	private long now;
+
+	private SessionStore store(int timeout) {
+		return new SessionStore(timeout, new AccessLog(AccessLog.Level.OFF, 1, null, 0, 0, 16), () -> now);
+	}
+
+	private void tickUntil(SessionStore store, long tick) {
+		for (long i = now / 1000 + 1; i <= tick; i++) {
+			now = i * 1000;
+			store.tick();
+		}
+	}
+
+	@Test
+	public void testCreatedSession() {
+		SessionStore store = store(10);
+
+		SessionStore.Session session = store.create();
+
+		assertEquals(1, store.size());
+		assertSame(session, store.get(session.getSid()));
+		assertTrue(session.getSid().matches("[A-Z]{20}"));
+		assertNotEquals(session.getSid(), store.create().getSid());
+	}
+
+	@Test
+	public void testExpiredSessionRemoved() {
+		SessionStore store = store(2);
+		SessionStore.Session session = store.create();
+
+		tickUntil(store, 2);
+		assertEquals(1, store.size());
+
+		tickUntil(store, 3);
+		assertEquals(0, store.size());
+		assertNull(store.get(session.getSid()));
+	}
+
+	@Test
+	public void testExpiredSessionNotReturned() {
+		SessionStore store = store(2);
+		SessionStore.Session session = store.create();
+
+		now = 2000;
+		assertNull(store.get(session.getSid()));
+	}
+
+	@Test
+	public void testRefreshedSessionRescheduled() {
+		SessionStore store = store(2);
+		SessionStore.Session session = store.create();
+
+		now = 1500;
+		assertSame(session, store.get(session.getSid()));
+		tickUntil(store, 3);
+		assertEquals(1, store.size());
+
+		tickUntil(store, 4);
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testDeadlineBeyondWheel() {
+		SessionStore store = store(1000);
+		store.create();
+
+		tickUntil(store, 1000);
+		assertEquals(1, store.size());
+
+		tickUntil(store, 1001);
+		assertEquals(0, store.size());
+	}
+}
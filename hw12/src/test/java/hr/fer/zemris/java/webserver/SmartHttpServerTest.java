@@ -0,0 +1,362 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmartHttpServerTest {
+
+	private static CountDownLatch started;
+
+	private static CountDownLatch release;
+
+	public static class SlowWorker implements IWebWorker {
+
+		@Override
+		public void processRequest(RequestContext context) throws Exception {
+			started.countDown();
+			release.await(10, TimeUnit.SECONDS);
+			context.write("slow done");
+		}
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SmartHttpServer server;
+
+	private int port;
+
+	@Before
+	public void resetLatches() {
+		started = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@After
+	public void stopServer() {
+		release.countDown();
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	private String startServer(Properties overrides) throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+
+		Path workers = folder.newFile("workers.properties").toPath();
+		Files.write(workers, ("/slow = " + SlowWorker.class.getName() + "\n").getBytes(StandardCharsets.UTF_8));
+
+		Properties properties = new Properties();
+		try (InputStream is = Files.newInputStream(Paths.get("config/server.properties"))) {
+			properties.load(is);
+		}
+		properties.setProperty("server.port", Integer.toString(port));
+		properties.setProperty("server.documentRoot", folder.getRoot().getAbsolutePath());
+		properties.setProperty("server.workers", workers.toString());
+		properties.setProperty("server.logLevel", "OFF");
+		properties.putAll(overrides);
+
+		Path config = folder.newFile("server.properties").toPath();
+		try (OutputStream os = Files.newOutputStream(config)) {
+			properties.store(os, null);
+		}
+
+		server = new SmartHttpServer(config.toString());
+		return output(server::start);
+	}
+
+	private Properties shutdownTimeout(long timeout) {
+		Properties properties = new Properties();
+		properties.setProperty("server.shutdownTimeout", Long.toString(timeout));
+		return properties;
+	}
+
+	private Socket connect() throws IOException {
+		for (int i = 0; i < 100; i++) {
+			try {
+				return new Socket("127.0.0.1", port);
+			} catch (ConnectException e) {
+				// Server thread may not have bound its socket yet.
+				sleep(20);
+			}
+		}
+		throw new ConnectException("Server isn't listening.");
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignorable) {
+		}
+	}
+
+	private static void send(Socket socket, String path) throws IOException {
+		String request = "GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n";
+		socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static String readAll(Socket socket) {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		try {
+			InputStream is = socket.getInputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				response.write(buffer, 0, read);
+			}
+		} catch (IOException ignorable) {
+			// Aborted connection may be reset instead of closed.
+		}
+		return new String(response.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static String output(Runnable action) {
+		PrintStream out = System.out;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(output, true));
+		try {
+			action.run();
+		} finally {
+			System.setOut(out);
+		}
+		return output.toString();
+	}
+
+	private String stop() {
+		try {
+			return output(server::stop);
+		} finally {
+			server = null;
+		}
+	}
+
+	private byte[] get(String path, String headerFields) throws IOException {
+		try (Socket socket = new Socket("127.0.0.1", port)) {
+			String request = "GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\n" + headerFields
+					+ "Connection: close\r\n\r\n";
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			InputStream is = socket.getInputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = is.read(buffer)) > 0) {
+				response.write(buffer, 0, read);
+			}
+			return response.toByteArray();
+		}
+	}
+
+	private Path script(String name, String content) throws IOException {
+		Path script = folder.getRoot().toPath().resolve(name);
+		Files.write(script, content.getBytes(StandardCharsets.UTF_8));
+		return script;
+	}
+
+	private String session() throws IOException {
+		String response = new String(get("/missing.txt", ""), StandardCharsets.ISO_8859_1);
+		int start = response.indexOf("Set-Cookie: sid=");
+		assertTrue(start >= 0);
+		return "Cookie: " + response.substring(start + "Set-Cookie: ".length(), response.indexOf(';', start))
+				+ "\r\n";
+	}
+
+	private void assertAllServed(int clients) throws IOException {
+		Files.write(folder.getRoot().toPath().resolve("index.html"), "index".getBytes(StandardCharsets.UTF_8));
+		Socket[] sockets = new Socket[clients];
+		try {
+			for (int i = 0; i < clients; i++) {
+				sockets[i] = new Socket("127.0.0.1", port);
+				sockets[i].setSoTimeout(10000);
+				sockets[i].getOutputStream().write(
+						"GET /index.html HTTP/1.1\r\nHost: 127.0.0.1\r\nConnection: close\r\n\r\n"
+								.getBytes(StandardCharsets.ISO_8859_1));
+			}
+			for (Socket socket : sockets) {
+				String response = readAll(socket);
+				assertTrue(response.startsWith("HTTP/1.1 200"));
+				assertTrue(response.endsWith("index"));
+			}
+		} finally {
+			for (Socket socket : sockets) {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+		}
+	}
+
+	private Thread stopInBackground(String[] report) {
+		Thread stopping = new Thread(() -> report[0] = stop());
+		stopping.start();
+		return stopping;
+	}
+
+	private boolean isRefused() {
+		try (Socket socket = new Socket("127.0.0.1", port)) {
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	@Test
+	public void testStopDrainsRequestInProgress() throws Exception {
+		startServer(shutdownTimeout(10000));
+		try (Socket socket = connect()) {
+			socket.setSoTimeout(10000);
+			send(socket, "/slow");
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			String[] report = new String[1];
+			Thread stopping = stopInBackground(report);
+			for (int i = 0; i < 100 && !isRefused(); i++) {
+				sleep(20);
+			}
+			assertTrue(isRefused());
+			assertTrue(stopping.isAlive());
+
+			release.countDown();
+			String response = readAll(socket);
+			stopping.join(10000);
+
+			assertTrue(response.startsWith("HTTP/1.1 200"));
+			assertTrue(response.endsWith("slow done"));
+			assertTrue(report[0].contains("Drained 1 requests, aborted 0 requests."));
+		}
+	}
+
+	@Test
+	public void testStopClosesIdleConnection() throws Exception {
+		startServer(shutdownTimeout(10000));
+		try (Socket idle = connect()) {
+			idle.setSoTimeout(10000);
+			// Wait until worker reads from connection.
+			sleep(200);
+
+			long start = System.nanoTime();
+			String report = stop();
+
+			assertEquals("", readAll(idle));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertTrue(report.contains("Drained 0 requests, aborted 0 requests."));
+		}
+	}
+
+	@Test
+	public void testStopAbortsRequestAfterTimeout() throws Exception {
+		startServer(shutdownTimeout(200));
+		try (Socket socket = connect()) {
+			socket.setSoTimeout(10000);
+			send(socket, "/slow");
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			String report = stop();
+
+			assertFalse(readAll(socket).startsWith("HTTP/1.1 200"));
+			assertTrue(report.contains("Drained 0 requests, aborted 1 requests."));
+		}
+	}
+
+	@Test
+	public void testAcceptorsWithReusePort() throws IOException {
+		assumeTrue(SmartHttpServer.isReusePortSupported());
+		Properties properties = new Properties();
+		properties.setProperty("server.acceptors", "4");
+
+		assertTrue(startServer(properties).contains("4 acceptors listen on their own sockets with SO_REUSEPORT"));
+		assertAllServed(20);
+	}
+
+	@Test
+	public void testBlockingAcceptors() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("server.acceptors", "3");
+		startServer(properties);
+
+		assertAllServed(20);
+		assertTrue(new String(get("/index.html", ""), StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 200"));
+	}
+
+	@Test
+	public void testEventLoopAcceptors() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("server.acceptors", "3");
+		properties.setProperty("server.eventLoop", "true");
+		startServer(properties);
+
+		assertAllServed(20);
+	}
+
+	@Test
+	public void testStopClosesSocketsOfAllAcceptors() throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("server.acceptors", "3");
+		startServer(properties);
+		assertAllServed(3);
+
+		assertTrue(stop().contains("Drained 0 requests, aborted 0 requests."));
+		assertTrue(isRefused());
+	}
+
+	@Test
+	public void testCachedOutputSameAsExecuted() throws IOException {
+		script("long.smscr", "{$= \"text/plain\" @setMimeType 60 @setCacheTtl $}"
+				+ "{$ FOR i 1 100 1 $}Line {$= i $} of output that is long enough to be compressed.\r\n{$END$}");
+		startServer(new Properties());
+		String cookie = session();
+
+		for (String acceptEncoding : new String[] { "Accept-Encoding: gzip\r\n", "" }) {
+			byte[] miss = get("/long.smscr", cookie + acceptEncoding);
+			byte[] hit = get("/long.smscr", cookie + acceptEncoding);
+
+			assertTrue(new String(miss, StandardCharsets.ISO_8859_1).startsWith("HTTP/1.1 200"));
+			assertArrayEquals(miss, hit);
+		}
+		assertTrue(new String(get("/long.smscr", cookie + "Accept-Encoding: gzip\r\n"), StandardCharsets.ISO_8859_1)
+				.contains("Content-Encoding: gzip\r\n"));
+	}
+
+	@Test
+	public void testPersistentParametersNotCached() throws IOException {
+		script("counter.smscr", "{$= \"text/plain\" @setMimeType 60 @setCacheTtl $}"
+				+ "{$= \"count\" \"1\" @pparamGet @dup 1 + \"count\" @pparamSet $}");
+		startServer(new Properties());
+		String cookie = session();
+
+		byte[] first = get("/counter.smscr", cookie);
+		byte[] second = get("/counter.smscr", cookie);
+
+		assertNotNull(first);
+		assertTrue(new String(first, StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n1"));
+		assertTrue(new String(second, StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n2"));
+	}
+}
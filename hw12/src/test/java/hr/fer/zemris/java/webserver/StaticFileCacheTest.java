@@ -0,0 +1,124 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StaticFileCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path file(String name, String content) throws IOException {
+		Path path = folder.getRoot().toPath().resolve(name);
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+		return path;
+	}
+
+	private StaticFileCache cache(long maxBytes) {
+		return new StaticFileCache(folder.getRoot().toPath(), new HashMap<>(), null, maxBytes, maxBytes);
+	}
+
+	@Test
+	public void testAliasesShareEntry() throws IOException {
+		file("index.html", "content");
+		StaticFileCache cache = cache(100);
+
+		StaticFileCache.Entry entry = cache.get("/index.html");
+		assertNotNull(entry);
+		assertSame(entry, cache.get("//index.html"));
+		assertSame(entry, cache.get("/./index.html"));
+		assertSame(entry, cache.get("/dir/../index.html"));
+	}
+
+	@Test
+	public void testOutsideDocumentRoot() throws IOException {
+		folder.newFolder("root");
+		file("secret.txt", "secret");
+		StaticFileCache cache = new StaticFileCache(folder.getRoot().toPath().resolve("root"), new HashMap<>(), null,
+				100, 100);
+
+		assertNull(cache.get("/../secret.txt"));
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		Path path = file("a.txt", "old");
+		StaticFileCache cache = cache(100);
+		assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), cache.get("//a.txt").getBody());
+
+		Files.write(path, "new".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(path, FileTime.fromMillis(0));
+
+		byte[] body = null;
+		for (int i = 0; i < 100; i++) {
+			body = cache.get("/a.txt").getBody();
+			if (new String(body, StandardCharsets.UTF_8).equals("new")) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), body);
+		assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), cache.get("/./a.txt").getBody());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() throws IOException {
+		file("a.txt", "aaaa");
+		file("b.txt", "bbbb");
+		file("c.txt", "cccc");
+		StaticFileCache cache = cache(10);
+
+		StaticFileCache.Entry a = cache.get("/a.txt");
+		StaticFileCache.Entry b = cache.get("/b.txt");
+		assertSame(a, cache.get("/a.txt"));
+		cache.get("/c.txt");
+
+		assertSame(a, cache.get("/a.txt"));
+		assertNotSame(b, cache.get("/b.txt"));
+	}
+
+	@Test
+	public void testOversizeFileNotCached() throws IOException {
+		file("large.txt", "0123456789");
+		file("small.txt", "0123");
+		StaticFileCache cache = cache(8);
+
+		StaticFileCache.Entry small = cache.get("/small.txt");
+		assertNull(cache.get("/large.txt"));
+		assertSame(small, cache.get("/small.txt"));
+	}
+
+	@Test
+	public void testCompressedVariantsCountAgainstBudget() throws IOException {
+		char[] content = new char[100];
+		Arrays.fill(content, 'a');
+		file("a.txt", new String(content));
+		Map<String, String> properties = new HashMap<>();
+		properties.put("compression.types", "text/plain");
+		properties.put("compression.threshold", "0");
+		Map<String, String> mimeTypes = new HashMap<>();
+		mimeTypes.put("txt", "text/plain");
+		StaticFileCache cache = new StaticFileCache(folder.getRoot().toPath(), mimeTypes,
+				new ResponseCompression(properties), 110, 110);
+
+		StaticFileCache.Entry entry = cache.get("/a.txt");
+		assertNotNull(entry);
+		assertNotSame(entry, cache.get("/a.txt"));
+	}
+}
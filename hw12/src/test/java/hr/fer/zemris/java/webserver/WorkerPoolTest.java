@@ -0,0 +1,113 @@
+package hr.fer.zemris.java.webserver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import hr.fer.zemris.java.webserver.workers.HelloWorker;
+
+public class WorkerPoolTest {
+
+	@ThreadSafe
+	public static class SafeWorker implements IWebWorker {
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	public static class UnsafeWorker implements IWebWorker {
+
+		@Override
+		public void processRequest(RequestContext context) {
+		}
+	}
+
+	@Test
+	public void testThreadSafeAnnotation() {
+		assertTrue(WorkerPool.isThreadSafe(SafeWorker.class));
+		assertTrue(WorkerPool.isThreadSafe(HelloWorker.class));
+		assertFalse(WorkerPool.isThreadSafe(UnsafeWorker.class));
+	}
+
+	@Test
+	public void testThreadSafeWorkerShared() throws Exception {
+		SafeWorker worker = new SafeWorker();
+		WorkerPool pool = new WorkerPool(worker, 1);
+
+		assertSame(worker, pool.acquire());
+		assertSame(worker, pool.acquire());
+		pool.release(worker);
+		assertSame(worker, pool.acquire());
+	}
+
+	@Test
+	public void testUnsafeWorkerNotShared() throws Exception {
+		UnsafeWorker worker = new UnsafeWorker();
+		WorkerPool pool = new WorkerPool(worker, 4);
+
+		IWebWorker first = pool.acquire();
+		IWebWorker second = pool.acquire();
+		assertSame(worker, first);
+		assertNotSame(first, second);
+		assertTrue(second instanceof UnsafeWorker);
+
+		pool.release(second);
+		assertSame(second, pool.acquire());
+	}
+
+	@Test
+	public void testIdleWorkersBounded() throws Exception {
+		WorkerPool pool = new WorkerPool(new UnsafeWorker(), 1);
+		IWebWorker first = pool.acquire();
+		IWebWorker second = pool.acquire();
+
+		pool.release(first);
+		pool.release(second);
+
+		assertSame(first, pool.acquire());
+		IWebWorker third = pool.acquire();
+		assertNotSame(first, third);
+		assertNotSame(second, third);
+	}
+
+	@Test
+	public void testConcurrentWorkersDistinct() throws Exception {
+		WorkerPool pool = new WorkerPool(new UnsafeWorker(), 8);
+		Set<IWebWorker> inUse = ConcurrentHashMap.newKeySet();
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		boolean[] overlapped = new boolean[1];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					start.await();
+					for (int j = 0; j < 1000; j++) {
+						IWebWorker worker = pool.acquire();
+						if (!inUse.add(worker)) {
+							overlapped[0] = true;
+						}
+						inUse.remove(worker);
+						pool.release(worker);
+					}
+				} catch (Exception e) {
+					overlapped[0] = true;
+				}
+			});
+			threads[i].start();
+		}
+
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertFalse(overlapped[0]);
+	}
+}